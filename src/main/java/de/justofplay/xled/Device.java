@@ -1,5 +1,18 @@
 package de.justofplay.xled;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static de.justofplay.xled.utils.Requester.postBinaryWithAuth;
 import static de.justofplay.xled.utils.Requester.postWithAuth;
 import static de.justofplay.xled.utils.Requester.sendGetWithToken;
 
@@ -7,10 +20,19 @@ import static de.justofplay.xled.utils.Requester.sendGetWithToken;
  * Represents a Twinkly device and provides methods to interact with it via the Twinkly API.
  */
 public class Device {
+    // Maximum number of parallel logins in connectAll
+    private static final int CONNECT_THREADS = 32;
+    // A token is renewed when it expires within this margin
+    private static final long EXPIRY_MARGIN_MILLIS = 60000;
+
     // Device IP address
     private String _ip;
     // Login/session information
     private Login _login;
+    // Whether the current token has been verified with the device
+    private boolean _verified;
+    // Raw gestalt JSON of the last device info query
+    private String _device_info;
 
     // Device information fields
     private String _prduct_name;
@@ -48,7 +70,10 @@ public class Device {
     }
 
     private void enterDeviceInfo() {
-        String respone = getDeviceInfo();
+        applyDeviceInfo(getDeviceInfo());
+    }
+
+    private void applyDeviceInfo(String respone) {
         if (respone != null && !respone.isEmpty()) {
             try {
                 org.json.JSONObject obj = new org.json.JSONObject(respone);
@@ -73,6 +98,7 @@ public class Device {
                 _max_movies = obj.optInt("max_movies", 0);
                 _wire_type = obj.optInt("wire_type", 0);
                 _copyright = obj.optString("copyright", "");
+                _device_info = respone;
             } catch (org.json.JSONException e) {
                 e.printStackTrace();
             }
@@ -85,18 +111,97 @@ public class Device {
      */
     public Device(String ip) {
         _ip = ip;
-        String loginResponse = login();
-        String loginJson = extractJsonBody(loginResponse);
-        if (loginJson == null || !loginJson.trim().startsWith("{")) {
-            _login = new Login("{}");
-        } else {
+        relogin();
+        enterDeviceInfo();
+    }
+
+    /**
+     * Constructs a Device object from known session information without touching the network,
+     * e.g. when restoring it from a {@link SessionCache}. The token is verified before the first command.
+     * @param ip         The IP address of the Twinkly device.
+     * @param login      The login/session information, or null to log in before the first command.
+     * @param deviceInfo The gestalt JSON of the device, or null if unknown.
+     */
+    public Device(String ip, Login login, String deviceInfo) {
+        _ip = ip;
+        _login = login;
+        applyDeviceInfo(deviceInfo);
+    }
+
+    /**
+     * Creates a Device object without touching the network.
+     * The device logs in before the first command is sent.
+     * @param ip The IP address of the Twinkly device.
+     * @return The Device object.
+     */
+    public static Device lazy(String ip) {
+        return new Device(ip, null, null);
+    }
+
+    /**
+     * Connects to many devices in parallel.
+     * Devices with a still valid session in the cache are restored without touching the network.
+     * Devices that are not connected when the deadline passes are returned as {@link #lazy(String)} devices
+     * and their pending logins are cancelled, so no second session is opened in the background.
+     * Newly connected sessions are written back to the cache.
+     * @param ips           The IP addresses of the Twinkly devices.
+     * @param timeoutMillis The deadline for all logins in milliseconds.
+     * @param cache         The session cache to use, or null.
+     * @return The devices by IP address, in the order of {@code ips}.
+     */
+    public static Map<String, Device> connectAll(Collection<String> ips, long timeoutMillis, SessionCache cache) {
+        Map<String, Device> devices = new LinkedHashMap<>();
+        Map<String, Future<Device>> futures = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(ips.size(), CONNECT_THREADS)), r -> {
+            Thread t = new Thread(r, "xled-connect");
+            t.setDaemon(true);
+            return t;
+        });
+        for (String ip : ips) {
+            Device cached = cache != null ? cache.restore(ip) : null;
+            devices.put(ip, cached);
+            if (cached == null) {
+                futures.put(ip, executor.submit(() -> {
+                    Device device = lazy(ip);
+                    device.relogin();
+                    // Skip the device info if the deadline passed during the login
+                    if (Thread.currentThread().isInterrupted()) return null;
+                    device.enterDeviceInfo();
+                    return device;
+                }));
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Map.Entry<String, Future<Device>> entry : futures.entrySet()) {
+            Device device;
             try {
-                _login = new Login(loginJson);
-            } catch (org.json.JSONException e) {
-                _login = new Login("{}");
+                device = entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (cache != null && !device.getLogin().getAuthenticationToken().isEmpty()) {
+                    cache.store(device);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                entry.getValue().cancel(true);
+                device = lazy(entry.getKey());
+            } catch (ExecutionException | TimeoutException e) {
+                // Stop the login, so the lazy device does not race with a second session in the background
+                entry.getValue().cancel(true);
+                device = lazy(entry.getKey());
             }
+            devices.put(entry.getKey(), device);
         }
-        enterDeviceInfo();
+        // Drops logins still waiting for a thread and interrupts running ones
+        executor.shutdownNow();
+
+        if (cache != null && !futures.isEmpty()) {
+            try {
+                cache.save();
+            } catch (java.io.IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return devices;
     }
 
     // --- Getters for device information ---
@@ -144,7 +249,12 @@ public class Device {
     /** @return The copyright string. */
     public String getCopyright() {enterDeviceInfo();return _copyright;}
 
-    /** @return The Login object containing authentication info. */
+    /** @return The gestalt JSON of the last device info query, or null if none was made yet. */
+    public String getCachedDeviceInfo() {
+        return _device_info;
+    }
+
+    /** @return The Login object containing authentication info, or null if a lazy device has not logged in yet. */
     public Login getLogin() {
         return _login;
     }
@@ -171,10 +281,30 @@ public class Device {
         return postWithAuth("/xled/v1/login", jsonContent, _login, _ip);
     }
 
+    /**
+     * Performs a fresh login and replaces the current session information.
+     * The new token is verified again before the next command is sent.
+     * @return The HTTP response of the login request as a string.
+     */
+    public String relogin() {
+        String loginResponse = login();
+        String loginJson = extractJsonBody(loginResponse);
+        if (loginJson == null || !loginJson.trim().startsWith("{")) {
+            _login = new Login("{}");
+        } else {
+            try {
+                _login = new Login(loginJson);
+            } catch (org.json.JSONException e) {
+                _login = new Login("{}");
+            }
+        }
+        _verified = false;
+        return loginResponse;
+    }
+
     public String setDeviceName(String deviceName) {
-        verify();
         String jsonContent = "{\"name\":\"" + deviceName + "\"}";
-        return postWithAuth("/xled/v1/device_name", jsonContent, _login, _ip);
+        return postVerified("/xled/v1/device_name", jsonContent);
     }
 
     /**
@@ -203,12 +333,44 @@ public class Device {
         return "";
     }
 
+    /**
+     * Uploads one stage of a firmware image.
+     * The device answers with the SHA-1 of the bytes it received in the "sha1sum" field.
+     * @param stage  The firmware stage (0 or 1).
+     * @param image  The image bytes, read from position to limit without being modified.
+     * @param digest The digest to update with the uploaded bytes, or null.
+     * @return The HTTP response as a string.
+     */
+    public String uploadFirmware(int stage, ByteBuffer image, MessageDigest digest) {
+        ensureVerified();
+        String path = "/xled/v1/fw/" + stage + "/update";
+        String response = postBinaryWithAuth(path, image, digest, _login, _ip);
+        if (isUnauthorized(response)) {
+            renewSession();
+            if (digest != null) digest.reset();
+            response = postBinaryWithAuth(path, image, digest, _login, _ip);
+        }
+        return response;
+    }
+
+    /**
+     * Starts the firmware update with the previously uploaded stages. The device reboots afterwards.
+     * @param stage0Sha1 The SHA-1 of stage 0 as a hex string.
+     * @param stage1Sha1 The SHA-1 of stage 1 as a hex string, or null if the device has only one stage.
+     * @return The HTTP response as a string.
+     */
+    public String updateFirmware(String stage0Sha1, String stage1Sha1) {
+        String jsonContent = "{\"checksum\":{\"stage0_sha1sum\":\"" + stage0Sha1 + "\""
+                + (stage1Sha1 != null ? ",\"stage1_sha1sum\":\"" + stage1Sha1 + "\"" : "") + "}}";
+        return postVerified("/xled/v1/fw/update", jsonContent);
+    }
+
     /**
      * Logs out from the device.
      * @return The HTTP response as a string.
      */
     public String logout() {
-        verify();
+        ensureVerified();
         return postWithAuth("/xled/v1/logout", "{}", _login, _ip);
     }
 
@@ -218,9 +380,8 @@ public class Device {
      * @return The HTTP response as a string.
      */
     public String setBrightness(int brightness) {
-        verify();
         String jsonContent = "{\"mode\":\"enabled\",\"type\":\"A\",\"value\":"+ brightness +"}";
-        return postWithAuth("/xled/v1/led/out/brightness", jsonContent, _login, _ip);
+        return postVerified("/xled/v1/led/out/brightness", jsonContent);
     }
 
     /**
@@ -228,8 +389,7 @@ public class Device {
      * @return The brightness value (0..100)
      */
     public int getBrightness() {
-        verify();
-        String response = sendGetWithToken(_ip + "/xled/v1/led/out/brightness", _login.getAuthenticationToken());
+        String response = getVerified("/xled/v1/led/out/brightness");
         if (response.contains("404 Not Found")) {
             return 0;
         }
@@ -253,9 +413,8 @@ public class Device {
      * @return The HTTP response as a string.
      */
     public String setColor(int red, int green, int blue) {
-        verify();
         String jsonContent = "{\"red\":" + red + ",\"green\":" + green + ",\"blue\":" + blue + "}";
-        return postWithAuth("/xled/v1/led/color", jsonContent, _login, _ip);
+        return postVerified("/xled/v1/led/color", jsonContent);
     }
 
     /**
@@ -267,9 +426,8 @@ public class Device {
      * @return HTTP response as String
      */
     public String setColorHSV(int hue, int saturation, int value) {
-        verify();
         String jsonContent = "{\"hue\":" + hue + ",\"saturation\":" + saturation + ",\"value\":" + value + "}";
-        return postWithAuth("/xled/v1/led/color", jsonContent, _login, _ip);
+        return postVerified("/xled/v1/led/color", jsonContent);
     }
 
     /**
@@ -277,8 +435,7 @@ public class Device {
      * @return The HTTP response as a string.
      */
     public String getColor() {
-        verify();
-        return sendGetWithToken(_ip + "/xled/v1/led/color", _login.getAuthenticationToken());
+        return getVerified("/xled/v1/led/color");
     }
 
     /**
@@ -341,9 +498,8 @@ public class Device {
      * @return The HTTP response as a string.
      */
     public String setSaturation(int saturation) {
-        verify();
         String jsonContent = "{\"mode\":\"enabled\",\"type\":\"A\",\"value\":"+ saturation +"}";
-        return postWithAuth("/xled/v1/led/out/saturation", jsonContent, _login, _ip);
+        return postVerified("/xled/v1/led/out/saturation", jsonContent);
     }
 
     /**
@@ -351,8 +507,7 @@ public class Device {
      * @return The saturation value (0..255)
      */
     public int getSaturation() {
-        verify();
-        String response = sendGetWithToken(_ip + "/xled/v1/led/out/saturation", _login.getAuthenticationToken());
+        String response = getVerified("/xled/v1/led/out/saturation");
         String json = extractJsonBody(response);
         if (json != null && !json.isEmpty()) {
             try {
@@ -371,9 +526,8 @@ public class Device {
      * @return The HTTP response as a string.
      */
     public String setMode(String mode) {
-        verify();
         String jsonContent = "{\"mode\":\"" + mode + "\"}";
-        return postWithAuth("/xled/v1/led/mode", jsonContent, _login, _ip);
+        return postVerified("/xled/v1/led/mode", jsonContent);
     }
 
     /**
@@ -381,8 +535,7 @@ public class Device {
      * @return The mode string.
      */
     public String getMode() {
-        verify();
-        String response = sendGetWithToken(_ip + "/xled/v1/led/mode", _login.getAuthenticationToken());
+        String response = getVerified("/xled/v1/led/mode");
         String json = extractJsonBody(response);
         if (json != null && !json.isEmpty()) {
             try {
@@ -401,9 +554,8 @@ public class Device {
      * @return The HTTP response as a string.
      */
     public String setCurrentMovie(int movieId) {
-        verify();
         String jsonContent = "{\"id\":" + movieId + "}";
-        return postWithAuth("/xled/v1/led/movies", jsonContent, _login, _ip);
+        return postVerified("/xled/v1/led/movies", jsonContent);
     }
 
     /**
@@ -411,8 +563,63 @@ public class Device {
      * @return The HTTP response as a string.
      */
     public String verify() {
+        if (_login == null) {
+            relogin();
+        }
         String jsonContent = "{\"challenge-response\": \"" + _login.getChallengeResponse() + "\"}";
-        return postWithAuth("/xled/v1/verify", jsonContent, _login, _ip);
+        String response = postWithAuth("/xled/v1/verify", jsonContent, _login, _ip);
+        _verified = response != null && response.startsWith("HTTP/1.1 200");
+        return response;
+    }
+
+    /**
+     * Makes sure the session can be used: logs in if there is no token or it is about to expire,
+     * and verifies the token if it has not been verified successfully yet.
+     * The device accepts a verified token until it expires, so one verify per login is enough.
+     */
+    private void ensureVerified() {
+        if (_login == null || _login.expiresWithin(EXPIRY_MARGIN_MILLIS)) {
+            relogin();
+        }
+        if (!_verified && isUnauthorized(verify())) {
+            // The token was rejected, e.g. a cached one after a reboot of the device
+            renewSession();
+        }
+    }
+
+    private void renewSession() {
+        relogin();
+        verify();
+    }
+
+    /**
+     * Sends an authenticated POST request, logging in again once if the device rejects the token.
+     */
+    private String postVerified(String path, String jsonContent) {
+        ensureVerified();
+        String response = postWithAuth(path, jsonContent, _login, _ip);
+        if (isUnauthorized(response)) {
+            renewSession();
+            response = postWithAuth(path, jsonContent, _login, _ip);
+        }
+        return response;
+    }
+
+    /**
+     * Sends an authenticated GET request, logging in again once if the device rejects the token.
+     */
+    private String getVerified(String path) {
+        ensureVerified();
+        String response = sendGetWithToken(_ip + path, _login.getAuthenticationToken());
+        if (isUnauthorized(response)) {
+            renewSession();
+            response = sendGetWithToken(_ip + path, _login.getAuthenticationToken());
+        }
+        return response;
+    }
+
+    private static boolean isUnauthorized(String response) {
+        return response != null && response.startsWith("HTTP/1.1 401");
     }
 
 
@@ -17,12 +17,25 @@ public class Login {
     private String _status_code;
     /** The status message mapped from the status code. */
     private String _status_message;
+    /** The time (in milliseconds since the epoch) the token was issued. */
+    private long _issued_at;
 
     /**
-     * Constructs a Login object from a JSON string.
+     * Constructs a Login object from a JSON string for a token issued just now.
      * @param jsonString The JSON string containing login/session information.
      */
     public Login(String jsonString) {
+        this(jsonString, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructs a Login object from a JSON string for a token issued at a given time,
+     * e.g. when restoring a session from a cache.
+     * @param jsonString The JSON string containing login/session information.
+     * @param issuedAt   The time (in milliseconds since the epoch) the token was issued.
+     */
+    public Login(String jsonString, long issuedAt) {
+        _issued_at = issuedAt;
         JSONObject obj = new JSONObject(jsonString);
         _authentication_token = obj.optString("authentication_token", "");
         if (_authentication_token.isEmpty()) {
@@ -97,4 +110,44 @@ public class Login {
      * @return The status message as a string.
      */
     public String getStatusMessage() { return _status_message;}
+
+    /**
+     * Gets the time the token was issued.
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getIssuedAt() { return _issued_at; }
+
+    /**
+     * Gets the time the token expires.
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getExpiresAt() {
+        try {
+            return _issued_at + Long.parseLong(_authentication_token_expires_in) * 1000;
+        } catch (NumberFormatException e) {
+            return _issued_at;
+        }
+    }
+
+    /**
+     * Checks whether the token is missing or expires within the given margin.
+     * @param marginMillis The safety margin in milliseconds.
+     * @return True if the token cannot be used for that long anymore.
+     */
+    public boolean expiresWithin(long marginMillis) {
+        return _authentication_token.isEmpty() || System.currentTimeMillis() + marginMillis >= getExpiresAt();
+    }
+
+    /**
+     * Converts the session information back to the JSON format returned by the device.
+     * @return The JSON string.
+     */
+    public String toJson() {
+        JSONObject obj = new JSONObject();
+        obj.put("authentication_token", _authentication_token);
+        obj.put("authentication_token_expires_in", Integer.parseInt(_authentication_token_expires_in));
+        obj.put("challenge-response", _challenge_response);
+        obj.put("code", Integer.parseInt(_status_code));
+        return obj.toString();
+    }
 }
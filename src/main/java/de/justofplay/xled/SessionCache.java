@@ -0,0 +1,107 @@
+package de.justofplay.xled;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Persists login tokens and device information in a local JSON file, so a restarted
+ * application can reuse still valid tokens instead of logging in to every device again.
+ * <p>
+ * The file contains authentication tokens and should only be readable by its owner.
+ */
+public class SessionCache {
+    /** Cached tokens are not reused if they expire within this margin (in milliseconds). */
+    private static final long EXPIRY_MARGIN_MILLIS = 60000;
+
+    // The cache file
+    private final Path _file;
+    // Cache entries by device IP address
+    private final JSONObject _entries;
+
+    /**
+     * Constructs a SessionCache and loads the cache file if it exists.
+     * An unreadable or corrupt file is treated as an empty cache.
+     * @param file The cache file.
+     */
+    public SessionCache(Path file) {
+        _file = file;
+        JSONObject entries = new JSONObject();
+        if (Files.exists(file)) {
+            try {
+                entries = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            } catch (IOException | JSONException e) {
+                System.err.println("Warning: ignoring session cache " + file + ": " + e.getMessage());
+            }
+        }
+        _entries = entries;
+    }
+
+    /**
+     * Restores a device from the cache without touching the network.
+     * @param ip The IP address of the Twinkly device.
+     * @return The device, or null if there is no entry or its token is about to expire.
+     */
+    public synchronized Device restore(String ip) {
+        JSONObject entry = _entries.optJSONObject(ip);
+        if (entry == null) return null;
+        JSONObject loginJson = entry.optJSONObject("login");
+        if (loginJson == null) return null;
+        Login login = new Login(loginJson.toString(), entry.optLong("issued_at", 0));
+        if (login.expiresWithin(EXPIRY_MARGIN_MILLIS)) {
+            _entries.remove(ip);
+            return null;
+        }
+        JSONObject deviceInfo = entry.optJSONObject("device_info");
+        return new Device(ip, login, deviceInfo != null ? deviceInfo.toString() : null);
+    }
+
+    /**
+     * Stores the current session and device information of a device.
+     * @param device The device to store.
+     */
+    public synchronized void store(Device device) {
+        Login login = device.getLogin();
+        if (login == null) return;
+        JSONObject entry = new JSONObject();
+        entry.put("login", new JSONObject(login.toJson()));
+        entry.put("issued_at", login.getIssuedAt());
+        if (device.getCachedDeviceInfo() != null) {
+            entry.put("device_info", new JSONObject(device.getCachedDeviceInfo()));
+        }
+        _entries.put(device.getIp(), entry);
+    }
+
+    /**
+     * Removes the entry of a device, e.g. after logging out.
+     * @param ip The IP address of the Twinkly device.
+     */
+    public synchronized void remove(String ip) {
+        _entries.remove(ip);
+    }
+
+    /**
+     * Writes the cache file. The file is replaced atomically, so a crash never leaves a partial cache.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void save() throws IOException {
+        Path parent = _file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, _file.getFileName().toString(), ".tmp");
+        try {
+            if (tmp.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            }
+            Files.writeString(tmp, _entries.toString(2), StandardCharsets.UTF_8);
+            Files.move(tmp, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package de.justofplay.xled.audio;
+
+import de.justofplay.xled.rt.RealtimeSender;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Audio-reactive show: reads audio, analyzes it and sends one real-time LED frame per audio block.
+ * <p>
+ * Every frame consumes exactly one frame period of audio, so the pipeline never falls behind.
+ * The capture-to-photon latency of a frame is the time from the newest sample becoming available
+ * to the frame being sent, plus any audio still queued in the capture line. If that queue grows
+ * beyond one frame, stale blocks are skipped to keep the latency under one frame period.
+ * <p>
+ * No objects are allocated once the loop is running.
+ */
+public class AudioReactive implements Runnable {
+    /** Default number of frequency bands. */
+    public static final int DEFAULT_BAND_COUNT = 16;
+
+    private final PcmReader _reader;
+    private final RealtimeSender _sender;
+    private final SpectrumAnalyzer _analyzer;
+    private final BandColorMapper _mapper;
+
+    // Audio samples per frame
+    private final int _hop;
+    // Duration of one frame in nanoseconds
+    private final long _frame_period_nanos;
+    // Sliding analysis window, oldest sample first
+    private final float[] _window;
+    // Reused LED frame
+    private final byte[] _frame;
+
+    private volatile boolean _running;
+    private volatile long _last_latency_nanos;
+    private volatile long _max_latency_nanos;
+    private volatile long _frames;
+    private volatile long _late_frames;
+    private volatile long _skipped_blocks;
+
+    /**
+     * Constructs an AudioReactive pipeline with {@link #DEFAULT_BAND_COUNT} bands.
+     * @param reader      The audio source.
+     * @param sender      The real-time sender of the device.
+     * @param numberOfLed The number of LEDs of the device.
+     * @param bytesPerLed The bytes per LED of the device.
+     * @param frameRate   The LED frames per second (e.g. {@code device.getFrameRate()}).
+     * @throws IllegalArgumentException If the frame rate is not positive.
+     */
+    public AudioReactive(PcmReader reader, RealtimeSender sender, int numberOfLed, int bytesPerLed, int frameRate) {
+        this(reader, sender, numberOfLed, bytesPerLed, frameRate, DEFAULT_BAND_COUNT);
+    }
+
+    /**
+     * Constructs an AudioReactive pipeline.
+     * @param reader      The audio source.
+     * @param sender      The real-time sender of the device.
+     * @param numberOfLed The number of LEDs of the device.
+     * @param bytesPerLed The bytes per LED of the device.
+     * @param frameRate   The LED frames per second (e.g. {@code device.getFrameRate()}).
+     * @param bandCount   The number of frequency bands.
+     * @throws IllegalArgumentException If the frame rate is not positive.
+     */
+    public AudioReactive(PcmReader reader, RealtimeSender sender, int numberOfLed, int bytesPerLed, int frameRate, int bandCount) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("Frame rate must be positive: " + frameRate);
+        }
+        _reader = reader;
+        _sender = sender;
+        _hop = Math.max(1, Math.round(reader.getSampleRate() / frameRate));
+        _frame_period_nanos = 1_000_000_000L / frameRate;
+        int size = Integer.highestOneBit(Math.max(1024, _hop - 1)) << 1;
+        _analyzer = new SpectrumAnalyzer(size, reader.getSampleRate(), bandCount);
+        _mapper = new BandColorMapper(numberOfLed, bytesPerLed, bandCount);
+        _window = new float[size];
+        _frame = new byte[_mapper.getFrameSize()];
+    }
+
+    /**
+     * Runs the pipeline until the audio ends or {@link #stop()} is called.
+     * Files are played back in real time; capture lines pace themselves.
+     */
+    @Override
+    public void run() {
+        _running = true;
+        int size = _window.length;
+        long start = System.nanoTime();
+        long frameIndex = 0;
+        try {
+            while (_running) {
+                // Shift the window and append one new block
+                System.arraycopy(_window, _hop, _window, 0, size - _hop);
+                int read = _reader.read(_window, size - _hop, _hop);
+                if (read <= 0) break;
+                if (read < _hop) {
+                    Arrays.fill(_window, size - _hop + read, size, 0f);
+                }
+                long captured = System.nanoTime();
+                frameIndex++;
+
+                if (_reader.isLive()) {
+                    if (_reader.getBufferedSamples() >= _hop) {
+                        // More than one frame of audio is queued: skip this block to catch up
+                        _skipped_blocks++;
+                        continue;
+                    }
+                } else {
+                    long due = start + frameIndex * _frame_period_nanos;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    // The block plays at its due time, so oversleeping counts as latency
+                    captured = due;
+                }
+
+                _analyzer.analyze(_window);
+                _mapper.render(_analyzer.getLevels(), _analyzer.isBeat(), _frame);
+                _sender.sendFrame(_frame, _frame.length);
+
+                long latency = System.nanoTime() - captured
+                        + (long) (_reader.getBufferedSamples() * 1_000_000_000L / _reader.getSampleRate());
+                _last_latency_nanos = latency;
+                if (latency > _max_latency_nanos) _max_latency_nanos = latency;
+                if (latency > _frame_period_nanos) _late_frames++;
+                _frames++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            _running = false;
+        }
+    }
+
+    /**
+     * Stops the pipeline after the current frame.
+     */
+    public void stop() {
+        _running = false;
+    }
+
+    /** @return True while the pipeline is running. */
+    public boolean isRunning() {
+        return _running;
+    }
+
+    /** @return The duration of one frame in nanoseconds, the latency budget. */
+    public long getFramePeriodNanos() {
+        return _frame_period_nanos;
+    }
+
+    /** @return The capture-to-photon latency of the last frame in nanoseconds. */
+    public long getLastLatencyNanos() {
+        return _last_latency_nanos;
+    }
+
+    /** @return The highest capture-to-photon latency so far in nanoseconds. */
+    public long getMaxLatencyNanos() {
+        return _max_latency_nanos;
+    }
+
+    /** @return The number of frames sent. */
+    public long getFrames() {
+        return _frames;
+    }
+
+    /** @return The number of frames whose latency exceeded one frame period. */
+    public long getLateFrames() {
+        return _late_frames;
+    }
+
+    /** @return The number of audio blocks skipped to catch up with a capture line. */
+    public long getSkippedBlocks() {
+        return _skipped_blocks;
+    }
+}
@@ -0,0 +1,94 @@
+package de.justofplay.xled.audio;
+
+/**
+ * Maps frequency band levels and beats to an LED frame.
+ * <p>
+ * The LEDs are split into one segment per band, from bass to treble. Every segment gets its
+ * own hue and is as bright as its band level; a beat flashes all LEDs towards white.
+ */
+public class BandColorMapper {
+    /** How much of the beat flash remains after each frame (0..1). */
+    private static final float FLASH_DECAY = 0.7f;
+    /** Hue span over all bands in degrees, from red (bass) to violet (treble). */
+    private static final float HUE_SPAN = 280f;
+
+    private final int _number_of_led;
+    private final int _bytes_per_led;
+    private final int _band_count;
+    // Base color of every band as r, g, b (0..1)
+    private final float[] _band_rgb;
+    // Current strength of the beat flash (0..1)
+    private float _flash;
+
+    /**
+     * Constructs a BandColorMapper.
+     * @param numberOfLed The number of LEDs of the device.
+     * @param bytesPerLed The bytes per LED of the device (3 for RGB, 4 for RGBW).
+     * @param bandCount   The number of bands.
+     */
+    public BandColorMapper(int numberOfLed, int bytesPerLed, int bandCount) {
+        _number_of_led = numberOfLed;
+        _bytes_per_led = bytesPerLed;
+        _band_count = bandCount;
+        _band_rgb = new float[bandCount * 3];
+        for (int b = 0; b < bandCount; b++) {
+            float hue = bandCount > 1 ? HUE_SPAN * b / (bandCount - 1) : 0f;
+            hsvToRgb(hue, b * 3);
+        }
+    }
+
+    /** @return The size of a frame in bytes. */
+    public int getFrameSize() {
+        return _number_of_led * _bytes_per_led;
+    }
+
+    /**
+     * Renders one frame.
+     * @param levels The band levels (0..1), lowest band first.
+     * @param beat   True if a beat was detected in this frame.
+     * @param frame  The frame to write, at least {@link #getFrameSize()} bytes.
+     */
+    public void render(float[] levels, boolean beat, byte[] frame) {
+        _flash = beat ? 1f : _flash * FLASH_DECAY;
+        int offset = 0;
+        for (int i = 0; i < _number_of_led; i++) {
+            int band = (int) ((long) i * _band_count / _number_of_led);
+            float level = Math.min(1f, levels[band]);
+            float r = _band_rgb[band * 3] * level;
+            float g = _band_rgb[band * 3 + 1] * level;
+            float b = _band_rgb[band * 3 + 2] * level;
+            if (_bytes_per_led == 4) {
+                // RGBW devices expect white first; the flash uses the white channel
+                frame[offset++] = toByte(_flash);
+            } else {
+                r += (1f - r) * _flash;
+                g += (1f - g) * _flash;
+                b += (1f - b) * _flash;
+            }
+            frame[offset++] = toByte(r);
+            frame[offset++] = toByte(g);
+            frame[offset++] = toByte(b);
+        }
+    }
+
+    private void hsvToRgb(float hue, int index) {
+        float h = hue / 60f;
+        float x = 1f - Math.abs(h % 2f - 1f);
+        float r, g, b;
+        switch ((int) h) {
+            case 0 -> { r = 1f; g = x; b = 0f; }
+            case 1 -> { r = x; g = 1f; b = 0f; }
+            case 2 -> { r = 0f; g = 1f; b = x; }
+            case 3 -> { r = 0f; g = x; b = 1f; }
+            case 4 -> { r = x; g = 0f; b = 1f; }
+            default -> { r = 1f; g = 0f; b = x; }
+        }
+        _band_rgb[index] = r;
+        _band_rgb[index + 1] = g;
+        _band_rgb[index + 2] = b;
+    }
+
+    private static byte toByte(float value) {
+        return (byte) Math.round(Math.max(0f, Math.min(1f, value)) * 255f);
+    }
+}
@@ -0,0 +1,131 @@
+package de.justofplay.xled.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads PCM audio as mono float samples (-1..1) from a WAV file or a capture line.
+ * Any input format is converted to signed 16-bit PCM; the read buffer is allocated once.
+ */
+public class PcmReader implements Closeable {
+    // The 16-bit PCM stream
+    private final AudioInputStream _stream;
+    // The capture line, or null when reading a file
+    private final TargetDataLine _line;
+    private final int _channels;
+    private final boolean _big_endian;
+    private final float _sample_rate;
+    // Reused byte buffer for one read
+    private byte[] _bytes = new byte[0];
+
+    private PcmReader(AudioInputStream stream, TargetDataLine line) {
+        AudioFormat source = stream.getFormat();
+        AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, source.getSampleRate(), 16,
+                source.getChannels(), source.getChannels() * 2, source.getSampleRate(), false);
+        _stream = source.matches(pcm) ? stream : AudioSystem.getAudioInputStream(pcm, stream);
+        _line = line;
+        _channels = pcm.getChannels();
+        _big_endian = pcm.isBigEndian();
+        _sample_rate = pcm.getSampleRate();
+    }
+
+    /**
+     * Opens a WAV (or other supported audio) file.
+     * @param file The audio file.
+     * @return The reader.
+     * @throws IOException If the file cannot be read.
+     * @throws UnsupportedAudioFileException If the file format is not supported.
+     */
+    public static PcmReader open(File file) throws IOException, UnsupportedAudioFileException {
+        return new PcmReader(AudioSystem.getAudioInputStream(file), null);
+    }
+
+    /**
+     * Opens and starts the default capture line (microphone or line-in) as 16-bit mono.
+     * @param sampleRate  The sample rate in Hz (e.g. 44100).
+     * @param bufferFrames The size of the line buffer in samples. Smaller buffers lower the latency.
+     * @return The reader.
+     * @throws LineUnavailableException If no capture line is available.
+     */
+    public static PcmReader capture(float sampleRate, int bufferFrames) throws LineUnavailableException {
+        AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
+        TargetDataLine line = AudioSystem.getTargetDataLine(format);
+        line.open(format, bufferFrames * format.getFrameSize());
+        line.start();
+        return new PcmReader(new AudioInputStream(line), line);
+    }
+
+    /** @return The sample rate in Hz. */
+    public float getSampleRate() {
+        return _sample_rate;
+    }
+
+    /** @return True if the samples come from a capture line and arrive in real time. */
+    public boolean isLive() {
+        return _line != null;
+    }
+
+    /**
+     * Gets the number of captured samples that are waiting to be read.
+     * @return The number of samples, always 0 for files.
+     */
+    public int getBufferedSamples() {
+        return _line != null ? _line.available() / (_channels * 2) : 0;
+    }
+
+    /**
+     * Reads mono samples, mixing all channels. Blocks until {@code count} samples are read or the stream ends.
+     * @param samples The array to write the samples to.
+     * @param offset  The first index to write.
+     * @param count   The number of samples to read.
+     * @return The number of samples read, or -1 at the end of the stream.
+     * @throws IOException If the stream cannot be read.
+     */
+    public int read(float[] samples, int offset, int count) throws IOException {
+        int frameSize = _channels * 2;
+        int length = count * frameSize;
+        if (_bytes.length < length) {
+            _bytes = new byte[length];
+        }
+        int read = 0;
+        while (read < length) {
+            int n = _stream.read(_bytes, read, length - read);
+            if (n == -1) break;
+            read += n;
+        }
+        int frames = read / frameSize;
+        if (frames == 0 && read < length) return -1;
+
+        float scale = 1f / (32768f * _channels);
+        for (int i = 0; i < frames; i++) {
+            int sum = 0;
+            int base = i * frameSize;
+            for (int c = 0; c < _channels; c++) {
+                int lo = _bytes[base + c * 2 + (_big_endian ? 1 : 0)] & 0xFF;
+                int hi = _bytes[base + c * 2 + (_big_endian ? 0 : 1)];
+                sum += (hi << 8) | lo;
+            }
+            samples[offset + i] = sum * scale;
+        }
+        return frames;
+    }
+
+    /**
+     * Closes the stream and the capture line.
+     * @throws IOException If the stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        _stream.close();
+        if (_line != null) {
+            _line.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package de.justofplay.xled.audio;
+
+/**
+ * Windowed FFT with logarithmic frequency bands and a simple beat detector.
+ * <p>
+ * All buffers and tables are allocated in the constructor, so {@link #analyze(float[])}
+ * does not allocate and can run once per LED frame.
+ */
+public class SpectrumAnalyzer {
+    /** Lowest frequency of the first band in Hz. */
+    private static final float MIN_FREQUENCY = 40f;
+    /** Highest frequency of the last band in Hz. */
+    private static final float MAX_FREQUENCY = 16000f;
+    /** Number of past frames the beat detector averages over. */
+    private static final int BEAT_HISTORY = 43;
+    /** A beat is detected if the bass energy exceeds its average by this factor. */
+    private static final float BEAT_THRESHOLD = 1.4f;
+    /** How fast band levels fall per frame (0..1). */
+    private static final float RELEASE = 0.85f;
+    /** How fast the automatic gain forgets old peaks per frame (0..1). */
+    private static final float PEAK_DECAY = 0.995f;
+    /** Band energies below this are treated as silence instead of being amplified. */
+    private static final float NOISE_FLOOR = 0.01f;
+
+    private final int _size;
+    private final int _log2_size;
+    private final int _band_count;
+
+    // Hann window
+    private final float[] _window;
+    // Twiddle factors for every butterfly span
+    private final float[] _cos;
+    private final float[] _sin;
+    // Bit reversal permutation
+    private final int[] _reverse;
+    // FFT work arrays
+    private final float[] _real;
+    private final float[] _imag;
+
+    // First and last (exclusive) FFT bin of every band
+    private final int[] _band_start;
+    private final int[] _band_end;
+    // Raw band energies, automatic gain peaks and smoothed output levels
+    private final float[] _energy;
+    private final float[] _peak;
+    private final float[] _levels;
+
+    // Ring buffer of past bass energies
+    private final float[] _beat_history = new float[BEAT_HISTORY];
+    private int _beat_index;
+    private int _beat_cooldown;
+    private boolean _beat;
+
+    /**
+     * Constructs a SpectrumAnalyzer.
+     * @param size       The FFT size, a power of two (e.g. 2048).
+     * @param sampleRate The sample rate in Hz.
+     * @param bandCount  The number of logarithmic frequency bands.
+     */
+    public SpectrumAnalyzer(int size, float sampleRate, int bandCount) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        _size = size;
+        _log2_size = Integer.numberOfTrailingZeros(size);
+        _band_count = bandCount;
+
+        _window = new float[size];
+        for (int i = 0; i < size; i++) {
+            _window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (size - 1)));
+        }
+        _cos = new float[size / 2];
+        _sin = new float[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            _cos[i] = (float) Math.cos(-2 * Math.PI * i / size);
+            _sin[i] = (float) Math.sin(-2 * Math.PI * i / size);
+        }
+        _reverse = new int[size];
+        for (int i = 0; i < size; i++) {
+            _reverse[i] = Integer.reverse(i) >>> (32 - _log2_size);
+        }
+        _real = new float[size];
+        _imag = new float[size];
+
+        _band_start = new int[bandCount];
+        _band_end = new int[bandCount];
+        float binWidth = sampleRate / size;
+        float maxFrequency = Math.min(MAX_FREQUENCY, sampleRate / 2);
+        double ratio = Math.pow(maxFrequency / MIN_FREQUENCY, 1.0 / bandCount);
+        int previous = 1;
+        for (int b = 0; b < bandCount; b++) {
+            int end = (int) Math.round(MIN_FREQUENCY * Math.pow(ratio, b + 1) / binWidth);
+            end = Math.min(Math.max(end, previous + 1), size / 2);
+            _band_start[b] = Math.min(previous, end - 1);
+            _band_end[b] = end;
+            previous = end;
+        }
+        _energy = new float[bandCount];
+        _peak = new float[bandCount];
+        _levels = new float[bandCount];
+    }
+
+    /** @return The FFT size. */
+    public int getSize() {
+        return _size;
+    }
+
+    /** @return The number of bands. */
+    public int getBandCount() {
+        return _band_count;
+    }
+
+    /**
+     * Analyzes the most recent {@link #getSize()} samples.
+     * @param samples The samples, oldest first. Only the first {@link #getSize()} are used.
+     */
+    public void analyze(float[] samples) {
+        for (int i = 0; i < _size; i++) {
+            int j = _reverse[i];
+            _real[j] = samples[i] * _window[i];
+            _imag[j] = 0f;
+        }
+        fft();
+
+        for (int b = 0; b < _band_count; b++) {
+            float sum = 0f;
+            for (int k = _band_start[b]; k < _band_end[b]; k++) {
+                sum += (float) Math.sqrt(_real[k] * _real[k] + _imag[k] * _imag[k]);
+            }
+            float energy = sum / (_band_end[b] - _band_start[b]);
+            _energy[b] = energy;
+            _peak[b] = Math.max(energy, _peak[b] * PEAK_DECAY);
+            float level = energy / Math.max(_peak[b], NOISE_FLOOR);
+            _levels[b] = Math.max(level, _levels[b] * RELEASE);
+        }
+        detectBeat();
+    }
+
+    /**
+     * Gets the smoothed band levels after the last {@link #analyze(float[])}.
+     * The returned array is reused; do not keep it across frames.
+     * @return The levels (0..1), lowest band first.
+     */
+    public float[] getLevels() {
+        return _levels;
+    }
+
+    /**
+     * Gets the raw band energies after the last {@link #analyze(float[])}, before the automatic gain.
+     * @return The mean FFT magnitude of every band, lowest band first.
+     */
+    float[] getEnergies() {
+        return _energy;
+    }
+
+    /** @return True if the last analyzed frame starts a beat. */
+    public boolean isBeat() {
+        return _beat;
+    }
+
+    private void detectBeat() {
+        int bassBands = Math.max(1, _band_count / 8);
+        float bass = 0f;
+        for (int b = 0; b < bassBands; b++) {
+            bass += _energy[b];
+        }
+        float average = 0f;
+        for (float e : _beat_history) {
+            average += e;
+        }
+        average /= BEAT_HISTORY;
+        _beat_history[_beat_index] = bass;
+        _beat_index = (_beat_index + 1) % BEAT_HISTORY;
+
+        if (_beat_cooldown > 0) _beat_cooldown--;
+        _beat = _beat_cooldown == 0 && average > 0f && bass > average * BEAT_THRESHOLD;
+        if (_beat) {
+            // Ignore the next frames so one kick is not detected several times
+            _beat_cooldown = BEAT_HISTORY / 6;
+        }
+    }
+
+    /**
+     * Iterative radix-2 FFT on the bit-reversed work arrays.
+     */
+    private void fft() {
+        for (int span = 1; span < _size; span <<= 1) {
+            int step = _size / (span << 1);
+            for (int start = 0; start < _size; start += span << 1) {
+                for (int k = 0; k < span; k++) {
+                    float wr = _cos[k * step];
+                    float wi = _sin[k * step];
+                    int even = start + k;
+                    int odd = even + span;
+                    float tr = wr * _real[odd] - wi * _imag[odd];
+                    float ti = wr * _imag[odd] + wi * _real[odd];
+                    _real[odd] = _real[even] - tr;
+                    _imag[odd] = _imag[even] - ti;
+                    _real[even] += tr;
+                    _imag[even] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.justofplay.xled.daemon;
+
+import de.justofplay.xled.Device;
+import org.json.JSONObject;
+
+/**
+ * A single command sent to the daemon, parsed from a JSON object such as
+ * <code>{"action":"color","red":255,"green":0,"blue":0}</code>.
+ */
+public class Command {
+    /** The action name (e.g. "color", "brightness", "mode"). */
+    private final String _action;
+    /** The JSON object holding the action arguments. */
+    private final JSONObject _args;
+
+    /**
+     * Constructs a Command from a JSON object.
+     * @param obj The JSON object containing the "action" key and its arguments.
+     * @throws IllegalArgumentException If the action is missing or unknown.
+     */
+    public Command(JSONObject obj) {
+        _action = obj.optString("action", "");
+        _args = obj;
+        switch (_action) {
+            case "color", "hsv", "brightness", "saturation", "mode", "movie", "name", "info", "firmware":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown action: '" + _action + "'");
+        }
+    }
+
+    /** @return The action name. */
+    public String getAction() {
+        return _action;
+    }
+
+    /**
+     * Gets the key under which pending commands are coalesced.
+     * A newer command with the same key replaces an older one that has not been sent yet,
+     * so only the last color, brightness, etc. reaches the device.
+     * @return The coalescing key.
+     */
+    public String getCoalesceKey() {
+        return switch (_action) {
+            case "color", "hsv" -> "color";
+            default -> _action;
+        };
+    }
+
+    /**
+     * Sends this command to the given device.
+     * @param device The device to send the command to.
+     * @return The response of the device as a string.
+     */
+    public String apply(Device device) {
+        return switch (_action) {
+            case "color" -> device.setColor(_args.optInt("red", 0), _args.optInt("green", 0), _args.optInt("blue", 0));
+            case "hsv" -> device.setColorHSV(_args.optInt("hue", 0), _args.optInt("saturation", 0), _args.optInt("value", 0));
+            case "brightness" -> device.setBrightness(_args.optInt("value", 0));
+            case "saturation" -> device.setSaturation(_args.optInt("value", 0));
+            case "mode" -> device.setMode(_args.optString("mode", ""));
+            case "movie" -> device.setCurrentMovie(_args.optInt("id", 0));
+            case "name" -> device.setDeviceName(_args.optString("name", ""));
+            case "info" -> device.getDeviceInfo();
+            case "firmware" -> device.getFirmwareVersion();
+            default -> null;
+        };
+    }
+}
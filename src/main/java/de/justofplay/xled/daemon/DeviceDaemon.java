@@ -0,0 +1,328 @@
+package de.justofplay.xled.daemon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.justofplay.xled.Device;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running daemon that keeps authenticated sessions for a fleet of Twinkly devices
+ * and accepts commands from short-lived clients over a local HTTP server and/or a Unix socket.
+ * <p>
+ * Usage: <code>java de.justofplay.xled.daemon.DeviceDaemon [--port 8787] [--socket /tmp/xled.sock] [--fleet file] ip...</code>
+ * <p>
+ * A request is a JSON object (or an array of them for a batch):
+ * <code>{"devices":["192.168.178.98"],"action":"color","red":255,"green":0,"blue":0}</code>.
+ * If "devices" is omitted, the command is sent to the whole fleet.
+ */
+public class DeviceDaemon {
+    /** How long a request waits for the devices to answer. */
+    private static final long REQUEST_TIMEOUT_SECONDS = 10;
+    /** How often sessions are checked for expiring tokens. */
+    private static final long REFRESH_INTERVAL_SECONDS = 30;
+
+    // Pooled sessions by IP address
+    private final Map<String, DeviceSession> _sessions = new LinkedHashMap<>();
+    // Refreshes tokens before they expire
+    private final ScheduledExecutorService _refresher = Executors.newSingleThreadScheduledExecutor();
+    // Handles incoming client requests
+    private final ExecutorService _clients = Executors.newCachedThreadPool();
+
+    private HttpServer _http_server;
+    private ServerSocketChannel _unix_server;
+
+    /**
+     * Constructs a DeviceDaemon and starts connecting to all devices of the fleet.
+     * @param ips The IP addresses of the Twinkly devices.
+     */
+    public DeviceDaemon(List<String> ips) {
+        for (String ip : ips) {
+            _sessions.put(ip, new DeviceSession(ip));
+        }
+        _refresher.scheduleAtFixedRate(() -> _sessions.values().forEach(DeviceSession::refreshIfExpiring),
+                REFRESH_INTERVAL_SECONDS, REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts the HTTP API on the loopback interface.
+     * <p>
+     * <code>GET /devices</code> lists the pooled sessions, <code>POST /command</code> sends commands.
+     * @param port The TCP port to listen on.
+     * @throws IOException If the server cannot be bound.
+     */
+    public void startHttp(int port) throws IOException {
+        _http_server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        _http_server.setExecutor(_clients);
+        _http_server.createContext("/devices", exchange -> {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, new JSONObject().put("error", "Method Not Allowed").toString());
+                return;
+            }
+            respond(exchange, 200, listDevices().toString());
+        });
+        _http_server.createContext("/command", exchange -> {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, new JSONObject().put("error", "Method Not Allowed").toString());
+                return;
+            }
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            try {
+                respond(exchange, 200, handle(body));
+            } catch (JSONException | IllegalArgumentException e) {
+                respond(exchange, 400, new JSONObject().put("error", e.getMessage()).toString());
+            }
+        });
+        _http_server.start();
+    }
+
+    /**
+     * Starts the line-based API on a Unix domain socket.
+     * Every line is one request as for <code>POST /command</code>; every answer is one line.
+     * @param path The socket file to create. An existing file is replaced.
+     * @throws IOException If the socket cannot be bound.
+     */
+    public void startUnixSocket(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        _unix_server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        _unix_server.bind(UnixDomainSocketAddress.of(path));
+        Thread acceptor = new Thread(() -> {
+            while (_unix_server.isOpen()) {
+                try {
+                    SocketChannel client = _unix_server.accept();
+                    _clients.execute(() -> serveUnixClient(client));
+                } catch (IOException e) {
+                    if (_unix_server.isOpen()) e.printStackTrace();
+                }
+            }
+        }, "xled-daemon-unix");
+        acceptor.start();
+    }
+
+    /**
+     * Stops both APIs and all device sessions.
+     */
+    public void stop() {
+        if (_http_server != null) _http_server.stop(0);
+        if (_unix_server != null) {
+            try {
+                _unix_server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        _refresher.shutdownNow();
+        _clients.shutdownNow();
+        _sessions.values().forEach(DeviceSession::close);
+    }
+
+    /**
+     * Handles one request body and returns the JSON answer.
+     * @param body A JSON object, or a JSON array of objects for a batch.
+     * @return The JSON answer as a string.
+     */
+    public String handle(String body) {
+        String trimmed = body.trim();
+        JSONArray requests = trimmed.startsWith("[") ? new JSONArray(trimmed) : new JSONArray().put(new JSONObject(trimmed));
+        // Parse every request and resolve all targets first, so a bad request does not leave a batch half sent
+        List<Command> commands = new ArrayList<>();
+        List<Map<String, DeviceSession>> targets = new ArrayList<>();
+        for (int i = 0; i < requests.length(); i++) {
+            JSONObject request = requests.getJSONObject(i);
+            commands.add(new Command(request));
+            targets.add(resolveTargets(request));
+        }
+        List<Map<String, CompletableFuture<String>>> submitted = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+            Map<String, CompletableFuture<String>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, DeviceSession> target : targets.get(i).entrySet()) {
+                futures.put(target.getKey(), target.getValue().submit(commands.get(i)));
+            }
+            submitted.add(futures);
+        }
+        // One deadline for the whole body, so a broadcast does not wait the timeout once per device
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(REQUEST_TIMEOUT_SECONDS);
+        if (!trimmed.startsWith("[")) {
+            return collect(submitted.get(0), deadline).toString();
+        }
+        JSONArray results = new JSONArray();
+        for (Map<String, CompletableFuture<String>> futures : submitted) {
+            results.put(collect(futures, deadline));
+        }
+        return results.toString();
+    }
+
+    /**
+     * Looks up the sessions a request is addressed to.
+     * @param request The request; without "devices" it addresses the whole fleet.
+     * @return The sessions by IP address.
+     * @throws IllegalArgumentException If "devices" is not an array or a device is not part of the fleet.
+     */
+    private Map<String, DeviceSession> resolveTargets(JSONObject request) {
+        if (!request.has("devices")) {
+            return _sessions;
+        }
+        JSONArray devices = request.optJSONArray("devices");
+        if (devices == null) {
+            throw new IllegalArgumentException("'devices' must be an array of IP addresses");
+        }
+        Map<String, DeviceSession> targets = new LinkedHashMap<>();
+        for (int i = 0; i < devices.length(); i++) {
+            String ip = devices.getString(i);
+            DeviceSession session = _sessions.get(ip);
+            if (session == null) {
+                throw new IllegalArgumentException("Unknown device: '" + ip + "'");
+            }
+            targets.put(ip, session);
+        }
+        return targets;
+    }
+
+    private JSONObject collect(Map<String, CompletableFuture<String>> futures, long deadline) {
+        JSONObject results = new JSONObject();
+        for (Map.Entry<String, CompletableFuture<String>> entry : futures.entrySet()) {
+            JSONObject result;
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                result = toResult(entry.getValue().get(remaining, TimeUnit.MILLISECONDS));
+            } catch (java.util.concurrent.TimeoutException e) {
+                result = new JSONObject().put("status", "Timeout");
+            } catch (Exception e) {
+                result = new JSONObject().put("status", "Exception: " + e.getMessage());
+            }
+            results.put(entry.getKey(), result);
+        }
+        return results;
+    }
+
+    /**
+     * Splits a raw device response into its status line and body.
+     * @param response The raw HTTP response or plain value returned by the device.
+     * @return A JSON object with "status" and "body".
+     */
+    private JSONObject toResult(String response) {
+        JSONObject result = new JSONObject();
+        if (response == null) {
+            return result.put("status", "");
+        }
+        if (response.startsWith("HTTP/1.1 ")) {
+            int lineEnd = response.indexOf('\n');
+            int bodyStart = response.indexOf("\n\n");
+            result.put("status", lineEnd == -1 ? response : response.substring(0, lineEnd));
+            result.put("body", bodyStart == -1 ? "" : response.substring(bodyStart + 2));
+        } else if (response.startsWith("Exception: ") || response.startsWith("Timeout: ")) {
+            result.put("status", response);
+        } else {
+            result.put("status", "OK");
+            result.put("body", response);
+        }
+        return result;
+    }
+
+    private JSONArray listDevices() {
+        JSONArray list = new JSONArray();
+        for (DeviceSession session : _sessions.values()) {
+            JSONObject entry = new JSONObject();
+            entry.put("ip", session.getIp());
+            Device device = session.getDevice();
+            entry.put("connected", device != null && device.getLogin() != null
+                    && !device.getLogin().getAuthenticationToken().isEmpty());
+            entry.put("session_age_ms", session.getSessionAge());
+            list.put(entry);
+        }
+        return list;
+    }
+
+    private void serveUnixClient(SocketChannel client) {
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                String answer;
+                try {
+                    answer = handle(line);
+                } catch (JSONException | IllegalArgumentException e) {
+                    answer = new JSONObject().put("error", e.getMessage()).toString();
+                }
+                out.write(answer);
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    /**
+     * Entry point of the daemon.
+     * @param args <code>[--port n] [--socket path] [--fleet file] ip...</code>
+     * @throws IOException If a server cannot be started or the fleet file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8787;
+        Path socket = null;
+        List<String> ips = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--socket" -> socket = Path.of(args[++i]);
+                case "--fleet" -> {
+                    for (String line : Files.readAllLines(Path.of(args[++i]))) {
+                        if (!line.isBlank() && !line.trim().startsWith("#")) ips.add(line.trim());
+                    }
+                }
+                default -> ips.add(args[i]);
+            }
+        }
+        if (ips.isEmpty()) {
+            System.err.println("Usage: DeviceDaemon [--port n] [--socket path] [--fleet file] ip...");
+            System.exit(1);
+        }
+
+        DeviceDaemon daemon = new DeviceDaemon(ips);
+        if (port > 0) daemon.startHttp(port);
+        if (socket != null) daemon.startUnixSocket(socket);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop));
+        System.out.println("XledJava daemon running for " + ips.size() + " device(s)"
+                + (port > 0 ? ", http://127.0.0.1:" + port : "")
+                + (socket != null ? ", unix:" + socket : ""));
+    }
+}
@@ -0,0 +1,160 @@
+package de.justofplay.xled.daemon;
+
+import de.justofplay.xled.Device;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps one authenticated {@link Device} warm and serializes all commands sent to it.
+ * Commands that are still waiting to be sent are coalesced by {@link Command#getCoalesceKey()}.
+ */
+public class DeviceSession {
+    /** Refresh the token this many seconds before the device lets it expire. */
+    private static final long REFRESH_MARGIN_SECONDS = 60;
+
+    // Device IP address
+    private final String _ip;
+    // The pooled device, created on the worker thread and read by client threads
+    private volatile Device _device;
+    // Time of the last successful login in milliseconds
+    private volatile long _login_time;
+
+    // Commands waiting to be sent, in arrival order
+    private final Map<String, Pending> _pending = new LinkedHashMap<>();
+    // Single worker thread, so the device never sees two requests at once
+    private final ExecutorService _worker;
+
+    /**
+     * A command waiting to be sent together with the future all its callers wait on.
+     */
+    private static class Pending {
+        Command command;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Pending(Command command) {
+            this.command = command;
+        }
+    }
+
+    /**
+     * Constructs a DeviceSession and starts connecting to the device in the background.
+     * @param ip The IP address of the Twinkly device.
+     */
+    public DeviceSession(String ip) {
+        _ip = ip;
+        _worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "xled-session-" + ip);
+            t.setDaemon(true);
+            return t;
+        });
+        _worker.execute(() -> {
+            _device = new Device(_ip);
+            _login_time = System.currentTimeMillis();
+        });
+    }
+
+    /** @return The device IP address. */
+    public String getIp() {
+        return _ip;
+    }
+
+    /** @return The pooled device, or null while the first login is still running. */
+    public Device getDevice() {
+        return _device;
+    }
+
+    /** @return The age of the current session in milliseconds. */
+    public long getSessionAge() {
+        return _login_time == 0 ? 0 : System.currentTimeMillis() - _login_time;
+    }
+
+    /**
+     * Queues a command for this device.
+     * If a command with the same coalescing key is still waiting, it is replaced, moves to the end
+     * of the queue so commands are still sent in arrival order, and both
+     * callers receive the response of the newer command.
+     * @param command The command to send.
+     * @return A future completing with the response of the device.
+     */
+    public CompletableFuture<String> submit(Command command) {
+        synchronized (_pending) {
+            // Re-inserting moves a replaced command behind everything queued before it
+            Pending pending = _pending.remove(command.getCoalesceKey());
+            if (pending != null) {
+                pending.command = command;
+                _pending.put(command.getCoalesceKey(), pending);
+                return pending.future;
+            }
+            pending = new Pending(command);
+            _pending.put(command.getCoalesceKey(), pending);
+            _worker.execute(this::drain);
+            return pending.future;
+        }
+    }
+
+    /**
+     * Refreshes the token if it is about to expire.
+     * Runs on the worker thread so it never overlaps with a command.
+     */
+    public void refreshIfExpiring() {
+        _worker.execute(() -> {
+            if (_device == null) return;
+            if (_device.getLogin().expiresWithin(REFRESH_MARGIN_SECONDS * 1000)) {
+                relogin();
+            }
+        });
+    }
+
+    /**
+     * Stops the worker thread. Commands that have not been sent yet are dropped.
+     */
+    public void close() {
+        _worker.shutdownNow();
+    }
+
+    /**
+     * Sends all waiting commands in arrival order.
+     */
+    private void drain() {
+        List<Pending> batch;
+        synchronized (_pending) {
+            batch = new ArrayList<>(_pending.values());
+            _pending.clear();
+        }
+        for (Pending pending : batch) {
+            try {
+                pending.future.complete(send(pending.command));
+            } catch (RuntimeException e) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Sends a command, logging in again once if the device rejects the token.
+     * @param command The command to send.
+     * @return The response of the device as a string.
+     */
+    private String send(Command command) {
+        if (_device.getLogin().getAuthenticationToken().isEmpty()) {
+            relogin();
+        }
+        String response = command.apply(_device);
+        if (response != null && response.startsWith("HTTP/1.1 401")) {
+            relogin();
+            response = command.apply(_device);
+        }
+        return response;
+    }
+
+    private void relogin() {
+        _device.relogin();
+        _login_time = System.currentTimeMillis();
+    }
+}
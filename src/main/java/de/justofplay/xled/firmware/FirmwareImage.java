@@ -0,0 +1,56 @@
+package de.justofplay.xled.firmware;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A firmware image for Twinkly devices, memory-mapped from disk.
+ * The image is mapped once and shared read-only by all uploads, so a fleet rollout
+ * never copies the whole file into the heap.
+ */
+public class FirmwareImage {
+    /** Stage 0 of the image. */
+    private final MappedByteBuffer _stage0;
+    /** Stage 1 of the image, or null for devices with a single stage. */
+    private final MappedByteBuffer _stage1;
+    /** The firmware version the device reports after the update, or null if unknown. */
+    private final String _version;
+
+    /**
+     * Constructs a FirmwareImage by mapping the stage files.
+     * @param stage0  The stage 0 file.
+     * @param stage1  The stage 1 file, or null for devices with a single stage.
+     * @param version The expected firmware version after the update (e.g. "2.8.3"), or null to skip the check.
+     * @throws IOException If a file cannot be mapped.
+     */
+    public FirmwareImage(Path stage0, Path stage1, String version) throws IOException {
+        _stage0 = map(stage0);
+        _stage1 = stage1 != null ? map(stage1) : null;
+        _version = version;
+    }
+
+    /** @return A read-only view of stage 0 with its own position. */
+    public ByteBuffer getStage0() {
+        return _stage0.asReadOnlyBuffer();
+    }
+
+    /** @return A read-only view of stage 1 with its own position, or null if there is no stage 1. */
+    public ByteBuffer getStage1() {
+        return _stage1 != null ? _stage1.asReadOnlyBuffer() : null;
+    }
+
+    /** @return The expected firmware version after the update, or null. */
+    public String getVersion() {
+        return _version;
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package de.justofplay.xled.firmware;
+
+import de.justofplay.xled.Device;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads a {@link FirmwareImage} to Twinkly devices and starts the update.
+ * <p>
+ * Every stage is streamed from the mapped file while its SHA-1 is computed, and the checksum
+ * reported by the device is compared before the update is started. If the image knows its
+ * version, the updater waits for the device to come back with that version.
+ */
+public class FirmwareUpdater {
+    /** Result of a successful update. */
+    public static final String OK = "Ok";
+
+    // How often a rebooting device is polled for its firmware version
+    private static final long POLL_INTERVAL_MS = 5000;
+
+    // The image to install
+    private final FirmwareImage _image;
+    // How long to wait for a device to come back after the update
+    private long _reboot_timeout_ms = 180000;
+
+    /**
+     * Constructs a FirmwareUpdater for an image.
+     * @param image The firmware image to install.
+     */
+    public FirmwareUpdater(FirmwareImage image) {
+        _image = image;
+    }
+
+    /**
+     * Sets how long to wait for a device to report the new firmware version.
+     * @param rebootTimeoutMs The timeout in milliseconds.
+     */
+    public void setRebootTimeout(long rebootTimeoutMs) {
+        _reboot_timeout_ms = rebootTimeoutMs;
+    }
+
+    /**
+     * Updates the firmware of one device.
+     * @param device The device to update.
+     * @return {@link #OK} on success, otherwise a description of the error.
+     */
+    public String update(Device device) {
+        String stage0Sha1 = upload(device, 0, _image.getStage0());
+        if (!isSha1(stage0Sha1)) return stage0Sha1;
+        String stage1Sha1 = null;
+        if (_image.getStage1() != null) {
+            stage1Sha1 = upload(device, 1, _image.getStage1());
+            if (!isSha1(stage1Sha1)) return stage1Sha1;
+        }
+
+        String response = device.updateFirmware(stage0Sha1, stage1Sha1);
+        if (response == null || !response.startsWith("HTTP/1.1 200")) {
+            return "Firmware update failed: " + firstLine(response);
+        }
+        if (_image.getVersion() == null) {
+            return OK;
+        }
+        return awaitVersion(device);
+    }
+
+    /**
+     * Updates the firmware of several devices, at most {@code concurrency} at a time.
+     * All uploads share the same mapped image.
+     * @param devices     The devices to update.
+     * @param concurrency The maximum number of devices updated at once.
+     * @return The result of {@link #update(Device)} by device IP, in the order of {@code devices}.
+     */
+    public Map<String, String> rollout(List<Device> devices, int concurrency) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        Map<String, Future<String>> futures = new LinkedHashMap<>();
+        for (Device device : devices) {
+            futures.put(device.getIp(), executor.submit(() -> update(device)));
+        }
+        executor.shutdown();
+
+        Map<String, String> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<String>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                results.put(entry.getKey(), "Interrupted");
+            } catch (ExecutionException e) {
+                results.put(entry.getKey(), "Exception: " + e.getCause().getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Uploads one stage and compares the checksum reported by the device with the local one.
+     * @return The SHA-1 as a hex string, or a description of the error.
+     */
+    private String upload(Device device, int stage, ByteBuffer data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String response = device.uploadFirmware(stage, data, digest);
+        String sha1 = toHex(digest.digest());
+        if (response == null || !response.startsWith("HTTP/1.1 200")) {
+            return "Upload of stage " + stage + " failed: " + firstLine(response);
+        }
+        int jsonStart = response.indexOf('{');
+        try {
+            JSONObject obj = new JSONObject(jsonStart == -1 ? "{}" : response.substring(jsonStart));
+            if (!sha1.equalsIgnoreCase(obj.optString("sha1sum", ""))) {
+                return "Error with firmware upgrade - SHA1SUM does not match (stage " + stage + ")";
+            }
+        } catch (JSONException e) {
+            return "Upload of stage " + stage + " failed: " + e.getMessage();
+        }
+        return sha1;
+    }
+
+    /**
+     * Waits for the device to reboot and report the expected firmware version.
+     */
+    private String awaitVersion(Device device) {
+        long deadline = System.currentTimeMillis() + _reboot_timeout_ms;
+        String version = "";
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "Interrupted";
+            }
+            device.relogin();
+            if (device.getLogin().getAuthenticationToken().isEmpty()) continue;
+            version = device.getFirmwareVersion();
+            if (_image.getVersion().equals(version)) {
+                return OK;
+            }
+        }
+        return "Device reports firmware '" + version + "' instead of '" + _image.getVersion() + "'";
+    }
+
+    private static boolean isSha1(String value) {
+        return value.length() == 40 && value.chars().allMatch(c -> Character.digit(c, 16) != -1);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static String firstLine(String response) {
+        if (response == null) return "";
+        int lineEnd = response.indexOf('\n');
+        return lineEnd == -1 ? response : response.substring(0, lineEnd);
+    }
+}
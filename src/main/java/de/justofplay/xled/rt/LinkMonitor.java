@@ -0,0 +1,233 @@
+package de.justofplay.xled.rt;
+
+import de.justofplay.xled.Login;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static de.justofplay.xled.utils.Requester.sendGetWithToken;
+
+/**
+ * Measures the link quality of real-time streams and adapts their frame rate.
+ * <p>
+ * Every interval, each device is probed with a small HTTP request for its gestalt. The probe yields
+ * the round-trip time and the frame rate the device actually displays. Comparing that with the
+ * frames sent in the same interval gives an estimate of the UDP frame loss; failed probes and frames
+ * rejected as unreachable count as loss.
+ * <p>
+ * On a bad link, the frame rate limit of the {@link RealtimeSender} is lowered multiplicatively;
+ * on a good link it recovers step by step up to the device frame rate. The fragment size stays fixed,
+ * because the device places fragments by their number and smaller ones would only add packets.
+ */
+public class LinkMonitor {
+    /** Loss above which a link is considered congested. */
+    private static final double CONGESTED_LOSS = 0.10;
+    /** Loss below which a link is considered healthy. */
+    private static final double HEALTHY_LOSS = 0.02;
+    /** Lowest frame rate the monitor chooses. */
+    private static final int MIN_FRAME_RATE = 5;
+
+    // Probe interval in milliseconds
+    private final long _interval_millis;
+    // Monitored streams
+    private final Map<RealtimeSender, Stream> _streams = new ConcurrentHashMap<>();
+    private ScheduledExecutorService _scheduler;
+    // Runs the probes, so one slow device does not delay the others
+    private ExecutorService _probe_pool;
+
+    /**
+     * State of one monitored stream.
+     */
+    private static class Stream {
+        final LinkQuality quality = new LinkQuality();
+        // Highest frame rate of the device, from the gestalt; 0 until known
+        int maxFrameRate;
+        // Frames sent at the previous probe and when
+        long lastFramesSent;
+        long lastSendErrors;
+        long lastProbeNanos;
+        // True while a probe of this stream is running
+        final AtomicBoolean probing = new AtomicBoolean();
+    }
+
+    /**
+     * Constructs a LinkMonitor.
+     * @param intervalMillis The probe interval in milliseconds (e.g. 1000).
+     */
+    public LinkMonitor(long intervalMillis) {
+        _interval_millis = intervalMillis;
+    }
+
+    /**
+     * Starts monitoring a stream. Its current frame rate limit is the starting point.
+     * The frame rate is only adapted once the device frame rate is known, from the cached
+     * device info or from the first successful probe.
+     * @param sender The sender of the stream.
+     * @return The link quality of the stream, updated on every probe.
+     */
+    public LinkQuality add(RealtimeSender sender) {
+        Stream stream = new Stream();
+        stream.maxFrameRate = cachedFrameRate(sender);
+        stream.lastFramesSent = sender.getFramesSent();
+        stream.lastSendErrors = sender.getSendErrors();
+        stream.lastProbeNanos = System.nanoTime();
+        stream.quality.setTargetFrameRate(sender.getTargetFrameRate());
+        _streams.put(sender, stream);
+        return stream.quality;
+    }
+
+    /**
+     * Stops monitoring a stream. Its settings are left as they are.
+     * @param sender The sender of the stream.
+     */
+    public void remove(RealtimeSender sender) {
+        _streams.remove(sender);
+    }
+
+    /**
+     * Gets the link quality of a stream.
+     * @param sender The sender of the stream.
+     * @return The link quality, or null if the stream is not monitored.
+     */
+    public LinkQuality getQuality(RealtimeSender sender) {
+        Stream stream = _streams.get(sender);
+        return stream != null ? stream.quality : null;
+    }
+
+    /**
+     * Starts probing all streams in the background.
+     */
+    public synchronized void start() {
+        if (_scheduler != null) return;
+        ThreadFactory threads = r -> {
+            Thread t = new Thread(r, "xled-link-monitor");
+            t.setDaemon(true);
+            return t;
+        };
+        _scheduler = Executors.newSingleThreadScheduledExecutor(threads);
+        _probe_pool = Executors.newCachedThreadPool(threads);
+        ExecutorService pool = _probe_pool;
+        _scheduler.scheduleWithFixedDelay(() -> _streams.forEach((sender, stream) -> {
+            // Skip a stream whose previous probe has not returned yet
+            if (stream.probing.compareAndSet(false, true)) {
+                pool.execute(() -> {
+                    try {
+                        probe(sender, stream);
+                    } finally {
+                        stream.probing.set(false);
+                    }
+                });
+            }
+        }), 0, _interval_millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops probing.
+     */
+    public synchronized void stop() {
+        if (_scheduler != null) {
+            _scheduler.shutdownNow();
+            _probe_pool.shutdownNow();
+            _scheduler = null;
+            _probe_pool = null;
+        }
+    }
+
+    /**
+     * Probes every stream once and adapts its settings, without a background thread.
+     */
+    public void probeAll() {
+        _streams.forEach(this::probe);
+    }
+
+    private void probe(RealtimeSender sender, Stream stream) {
+        LinkQuality quality = stream.quality;
+        Login login = sender.getDevice().getLogin();
+        long start = System.nanoTime();
+        String response = sendGetWithToken(sender.getDevice().getIp() + "/xled/v1/gestalt",
+                login != null ? login.getAuthenticationToken() : null);
+        long end = System.nanoTime();
+
+        long framesSent = sender.getFramesSent();
+        long sendErrors = sender.getSendErrors();
+        long newFrames = framesSent - stream.lastFramesSent;
+        long newErrors = sendErrors - stream.lastSendErrors;
+        double seconds = (end - stream.lastProbeNanos) / 1e9;
+        double sentRate = seconds > 0 ? newFrames / seconds : 0;
+        stream.lastFramesSent = framesSent;
+        stream.lastSendErrors = sendErrors;
+        stream.lastProbeNanos = end;
+
+        if (newErrors > 0) {
+            // The device port was unreachable for some frames
+            quality.recordLoss((double) newErrors / (newFrames + newErrors));
+        }
+
+        int jsonStart = response != null && response.startsWith("HTTP/1.1 200") ? response.indexOf('{') : -1;
+        if (jsonStart == -1) {
+            quality.recordFailedProbe();
+        } else {
+            try {
+                JSONObject gestalt = new JSONObject(response.substring(jsonStart));
+                float measured = (float) gestalt.optDouble("measured_frame_rate", 0.0);
+                int frameRate = gestalt.optInt("frame_rate", 0);
+                if (frameRate > 0) stream.maxFrameRate = frameRate;
+                quality.recordProbe((end - start) / 1e6, measured);
+                // The device never displays more than its own frame rate, whatever arrives
+                double expected = frameRate > 0 ? Math.min(sentRate, frameRate) : sentRate;
+                if (expected >= 1 && measured > 0) {
+                    quality.recordLoss(1.0 - measured / expected);
+                }
+            } catch (JSONException e) {
+                quality.recordFailedProbe();
+            }
+        }
+        adapt(sender, stream);
+    }
+
+    /**
+     * Lowers the frame rate multiplicatively on a congested link and raises it additively on a healthy one.
+     */
+    private void adapt(RealtimeSender sender, Stream stream) {
+        LinkQuality quality = stream.quality;
+        int maxRate = stream.maxFrameRate;
+        // Without the device frame rate a failed first probe would clamp an unlimited stream for good
+        if (maxRate == 0) return;
+        int rate = sender.getTargetFrameRate();
+        if (rate == 0) rate = maxRate;
+        // Jitter beyond half a frame period delays frames past their display slot
+        double periodMillis = 1000.0 / rate;
+        boolean congested = quality.getLoss() > CONGESTED_LOSS || quality.getJitterMillis() > periodMillis / 2;
+        boolean healthy = quality.getLoss() < HEALTHY_LOSS && quality.getJitterMillis() < periodMillis / 4;
+
+        if (congested) {
+            rate = Math.max(MIN_FRAME_RATE, (int) (rate * 0.8));
+        } else if (healthy) {
+            rate = Math.min(maxRate, rate + 1);
+        }
+        sender.setTargetFrameRate(rate);
+        quality.setTargetFrameRate(sender.getTargetFrameRate());
+    }
+
+    /**
+     * Gets the device frame rate from the device info the device already holds, without a request.
+     * @return The frame rate, or 0 if unknown.
+     */
+    private static int cachedFrameRate(RealtimeSender sender) {
+        String deviceInfo = sender.getDevice().getCachedDeviceInfo();
+        if (deviceInfo == null || deviceInfo.isEmpty()) return 0;
+        try {
+            return Math.max(0, new JSONObject(deviceInfo).optInt("frame_rate", 0));
+        } catch (JSONException e) {
+            return 0;
+        }
+    }
+}
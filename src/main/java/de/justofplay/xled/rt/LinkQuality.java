@@ -0,0 +1,99 @@
+package de.justofplay.xled.rt;
+
+/**
+ * Link quality of one device as measured by a {@link LinkMonitor}, together with the
+ * real-time frame rate the monitor chose for it.
+ * <p>
+ * RTT, jitter and loss are exponentially weighted moving averages, so single outliers do not
+ * cause the settings to jump.
+ */
+public class LinkQuality {
+    /** Weight of a new sample in the moving averages. */
+    private static final double SMOOTHING = 0.25;
+
+    private volatile double _rtt_millis;
+    private volatile double _jitter_millis;
+    private volatile double _loss;
+    private volatile float _measured_frame_rate;
+    private volatile long _probes;
+    private volatile long _failed_probes;
+    private volatile int _target_frame_rate;
+
+    /** @return The smoothed round-trip time of the HTTP probes in milliseconds. */
+    public double getRttMillis() {
+        return _rtt_millis;
+    }
+
+    /** @return The smoothed variation between consecutive round-trip times in milliseconds. */
+    public double getJitterMillis() {
+        return _jitter_millis;
+    }
+
+    /** @return The estimated share of lost frames and probes (0..1). */
+    public double getLoss() {
+        return _loss;
+    }
+
+    /** @return The frame rate the device reported in the last successful probe. */
+    public float getMeasuredFrameRate() {
+        return _measured_frame_rate;
+    }
+
+    /** @return The number of probes sent. */
+    public long getProbes() {
+        return _probes;
+    }
+
+    /** @return The number of probes that failed or timed out. */
+    public long getFailedProbes() {
+        return _failed_probes;
+    }
+
+    /** @return The frame rate limit chosen for the stream. */
+    public int getTargetFrameRate() {
+        return _target_frame_rate;
+    }
+
+    /**
+     * Records a successful probe.
+     * @param rttMillis         The round-trip time in milliseconds.
+     * @param measuredFrameRate The frame rate reported by the device.
+     */
+    void recordProbe(double rttMillis, float measuredFrameRate) {
+        if (_probes - _failed_probes == 0) {
+            _rtt_millis = rttMillis;
+        } else {
+            _jitter_millis += SMOOTHING * (Math.abs(rttMillis - _rtt_millis) - _jitter_millis);
+            _rtt_millis += SMOOTHING * (rttMillis - _rtt_millis);
+        }
+        _measured_frame_rate = measuredFrameRate;
+        _probes++;
+    }
+
+    /**
+     * Records a probe that failed or timed out.
+     */
+    void recordFailedProbe() {
+        _probes++;
+        _failed_probes++;
+        recordLoss(1.0);
+    }
+
+    /**
+     * Adds a loss sample.
+     * @param loss The share of lost frames in the last interval (0..1).
+     */
+    void recordLoss(double loss) {
+        _loss += SMOOTHING * (Math.max(0.0, Math.min(1.0, loss)) - _loss);
+    }
+
+    void setTargetFrameRate(int targetFrameRate) {
+        _target_frame_rate = targetFrameRate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rtt=%.1fms jitter=%.1fms loss=%.1f%% measured=%.1ffps target=%dfps",
+                _rtt_millis, _jitter_millis, _loss * 100, _measured_frame_rate, _target_frame_rate);
+    }
+}
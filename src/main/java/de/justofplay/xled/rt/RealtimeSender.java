@@ -0,0 +1,260 @@
+package de.justofplay.xled.rt;
+
+import de.justofplay.xled.Device;
+import de.justofplay.xled.Login;
+import de.justofplay.xled.Mode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Base64;
+
+/**
+ * Sends real-time frames to a Twinkly device over UDP (protocol version 3).
+ * <p>
+ * A frame holds {@link Device#getBytesPerLed()} bytes per LED and is split into fragments
+ * of {@link #MAX_FRAGMENT_SIZE} bytes. The packet buffer is allocated once,
+ * so sending a frame does not allocate.
+ */
+public class RealtimeSender implements Closeable {
+    /** The UDP port Twinkly devices listen on for real-time frames. */
+    public static final int DEFAULT_PORT = 7777;
+    /**
+     * The LED bytes per packet. The header carries no offset, so the device places fragment N
+     * at N times this size; every fragment but the last must be exactly this long.
+     */
+    public static final int MAX_FRAGMENT_SIZE = 900;
+
+    // Version byte, 8 token bytes, two zero bytes and the fragment number
+    private static final int HEADER_SIZE = 12;
+    private static final int TOKEN_SIZE = 8;
+
+    // The target device
+    private final Device _device;
+    // Connected UDP channel to the device
+    private final DatagramChannel _channel;
+    // Reused packet buffer
+    private final ByteBuffer _packet = ByteBuffer.allocateDirect(HEADER_SIZE + MAX_FRAGMENT_SIZE);
+    // The login the header token was decoded from
+    private Login _token_login;
+    // Maximum frames per second, 0 for no limit
+    private volatile int _target_frame_rate;
+    // Earliest time the next frame may be sent
+    private long _next_frame_nanos;
+    // Number of frames sent so far
+    private volatile long _frames_sent;
+    // Number of frames dropped by the frame rate limit
+    private volatile long _frames_dropped;
+    // Number of frames the device reported as unreachable
+    private volatile long _send_errors;
+    // Records every sent frame, or null
+    private volatile ShowRecorder _recorder;
+    // Index of this device in the recording
+    private int _recorder_device;
+
+    /**
+     * Constructs a RealtimeSender for the default real-time port.
+     * @param device The device to send frames to.
+     * @throws IOException If the UDP channel cannot be opened.
+     */
+    public RealtimeSender(Device device) throws IOException {
+        this(device, DEFAULT_PORT);
+    }
+
+    /**
+     * Constructs a RealtimeSender for a given UDP port.
+     * @param device The device to send frames to.
+     * @param port   The UDP port of the device.
+     * @throws IOException If the UDP channel cannot be opened.
+     */
+    public RealtimeSender(Device device, int port) throws IOException {
+        _device = device;
+        String host = device.getIp();
+        int portStart = host.lastIndexOf(':');
+        if (portStart != -1 && host.indexOf(':') == portStart) {
+            host = host.substring(0, portStart);
+        }
+        _channel = DatagramChannel.open();
+        _channel.connect(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Switches the device to real-time mode.
+     * @return The HTTP response as a string.
+     */
+    public String start() {
+        return _device.setMode(Mode.RT);
+    }
+
+    /** @return The device frames are sent to. */
+    public Device getDevice() {
+        return _device;
+    }
+
+    /** @return The maximum frames per second, 0 if unlimited. */
+    public int getTargetFrameRate() {
+        return _target_frame_rate;
+    }
+
+    /**
+     * Limits the frames per second. Frames offered faster than this are dropped instead of sent,
+     * so a congested link is not flooded.
+     * @param targetFrameRate The maximum frames per second, 0 for no limit.
+     */
+    public void setTargetFrameRate(int targetFrameRate) {
+        if (targetFrameRate < 0) {
+            throw new IllegalArgumentException("Target frame rate must not be negative: " + targetFrameRate);
+        }
+        _target_frame_rate = targetFrameRate;
+    }
+
+    /**
+     * Records every frame sent from now on into a show file.
+     * @param recorder The recorder, or null to stop recording.
+     */
+    public void setRecorder(ShowRecorder recorder) {
+        if (recorder != null) {
+            _recorder_device = recorder.addDevice(_device.getIp());
+        }
+        _recorder = recorder;
+    }
+
+    /** @return The number of frames sent so far. */
+    public long getFramesSent() {
+        return _frames_sent;
+    }
+
+    /** @return The number of frames dropped by the frame rate limit. */
+    public long getFramesDropped() {
+        return _frames_dropped;
+    }
+
+    /** @return The number of frames that could not be delivered because the device port was unreachable. */
+    public long getSendErrors() {
+        return _send_errors;
+    }
+
+    /**
+     * Sends one frame.
+     * @param frame  The LED data, {@link Device#getBytesPerLed()} bytes per LED.
+     * @param length The number of bytes of {@code frame} to send.
+     * @return False if the frame was dropped by the frame rate limit or the device was unreachable.
+     * @throws IOException If a packet cannot be sent.
+     */
+    public boolean sendFrame(byte[] frame, int length) throws IOException {
+        if (!acquireFrameSlot()) return false;
+        updateToken();
+        int fragment = 0;
+        try {
+            for (int offset = 0; offset < length; offset += MAX_FRAGMENT_SIZE) {
+                _packet.clear();
+                _packet.position(HEADER_SIZE - 1);
+                _packet.put((byte) fragment++);
+                _packet.put(frame, offset, Math.min(MAX_FRAGMENT_SIZE, length - offset));
+                _packet.flip();
+                _channel.write(_packet);
+            }
+        } catch (PortUnreachableException e) {
+            // The device rejected an earlier packet, e.g. while rebooting; keep streaming
+            _send_errors++;
+            return false;
+        }
+        _frames_sent++;
+        ShowRecorder recorder = _recorder;
+        if (recorder != null) {
+            recorder.record(_recorder_device, frame, length);
+        }
+        return true;
+    }
+
+    /**
+     * Sends one frame from a buffer without copying it to the heap.
+     * The buffer is read from its position to its limit and its position is not changed.
+     * @param frame The LED data, {@link Device#getBytesPerLed()} bytes per LED.
+     * @return False if the frame was dropped by the frame rate limit or the device was unreachable.
+     * @throws IOException If a packet cannot be sent.
+     */
+    public boolean sendFrame(ByteBuffer frame) throws IOException {
+        if (!acquireFrameSlot()) return false;
+        updateToken();
+        int start = frame.position();
+        int end = frame.limit();
+        int fragment = 0;
+        try {
+            for (int offset = start; offset < end; offset += MAX_FRAGMENT_SIZE) {
+                frame.limit(Math.min(offset + MAX_FRAGMENT_SIZE, end));
+                frame.position(offset);
+                _packet.clear();
+                _packet.position(HEADER_SIZE - 1);
+                _packet.put((byte) fragment++);
+                _packet.put(frame);
+                _packet.flip();
+                _channel.write(_packet);
+            }
+        } catch (PortUnreachableException e) {
+            // The device rejected an earlier packet, e.g. while rebooting; keep streaming
+            _send_errors++;
+            return false;
+        } finally {
+            frame.limit(end);
+            frame.position(start);
+        }
+        _frames_sent++;
+        ShowRecorder recorder = _recorder;
+        if (recorder != null) {
+            recorder.record(_recorder_device, frame);
+        }
+        return true;
+    }
+
+    /**
+     * Closes the UDP channel. The device returns to its previous mode after a timeout.
+     * @throws IOException If the channel cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+    /**
+     * Checks the frame rate limit and reserves the time slot of the next frame.
+     * @return False if the frame has to be dropped.
+     */
+    private boolean acquireFrameSlot() {
+        int rate = _target_frame_rate;
+        if (rate == 0) return true;
+        long now = System.nanoTime();
+        long period = 1_000_000_000L / rate;
+        // A quarter period of tolerance, so a sender running at exactly the limit is not throttled by jitter
+        if (now - _next_frame_nanos < -period / 4) {
+            _frames_dropped++;
+            return false;
+        }
+        _next_frame_nanos = Math.max(now, _next_frame_nanos) + period;
+        return true;
+    }
+
+    /**
+     * Writes the header for the current token. Only decodes the token again after a new login.
+     */
+    private void updateToken() {
+        Login login = _device.getLogin();
+        if (login == _token_login) return;
+        byte[] token;
+        try {
+            token = login != null ? Base64.getDecoder().decode(login.getAuthenticationToken()) : new byte[0];
+        } catch (IllegalArgumentException e) {
+            token = new byte[0];
+        }
+        _packet.clear();
+        _packet.put((byte) 0x03);
+        for (int i = 0; i < TOKEN_SIZE; i++) {
+            _packet.put(i < token.length ? token[i] : 0);
+        }
+        _packet.put((byte) 0x00).put((byte) 0x00);
+        _token_login = login;
+    }
+}
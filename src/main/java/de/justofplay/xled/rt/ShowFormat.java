@@ -0,0 +1,59 @@
+package de.justofplay.xled.rt;
+
+import java.nio.file.Path;
+
+/**
+ * Layout of show files written by {@link ShowRecorder} and read by {@link ShowPlayer}.
+ * <p>
+ * A show file starts with a header of {@link #HEADER_SIZE} bytes: the magic, the format version,
+ * the chunk size, the number of devices and the device IPs (each a short length and UTF-8 bytes).
+ * The records follow in chunks of the chunk size. A record never crosses a chunk boundary, so every
+ * chunk can be mapped on its own and recordings are not limited by the 2 GiB size of one mapping.
+ * <p>
+ * Each record has a header of {@link #RECORD_HEADER_SIZE} bytes (payload length, device index, type,
+ * one reserved byte, timestamp in nanoseconds since the start of the recording) followed by the payload.
+ * A type of 0 marks the end of the recording.
+ * <p>
+ * The seek index lives next to the show file ({@link #indexFile(Path)}) and holds pairs of
+ * timestamp and file offset, one about every {@link #INDEX_INTERVAL_NANOS}.
+ */
+class ShowFormat {
+    static final long MAGIC = 0x584C454453484F57L; // "XLEDSHOW"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4096;
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    // Header offsets
+    static final int HEADER_VERSION = 8;
+    static final int HEADER_CHUNK_SIZE = 12;
+    static final int HEADER_DEVICE_COUNT = 16;
+    static final int HEADER_DEVICES = 20;
+
+    static final int RECORD_HEADER_SIZE = 16;
+    // Record header offsets
+    static final int RECORD_DEVICE = 4;
+    static final int RECORD_TYPE = 6;
+    static final int RECORD_TIMESTAMP = 8;
+
+    /** End of the recording. */
+    static final byte TYPE_END = 0;
+    /** One frame sent to a device. */
+    static final byte TYPE_FRAME = 1;
+    /** The rest of the chunk is unused; continue with the next chunk. */
+    static final byte TYPE_NEXT_CHUNK = 2;
+
+    static final long INDEX_INTERVAL_NANOS = 1_000_000_000L;
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    private ShowFormat() {
+    }
+
+    /**
+     * Gets the seek index file of a show file.
+     * @param showFile The show file.
+     * @return The index file, the show file name with ".idx" appended.
+     */
+    static Path indexFile(Path showFile) {
+        return showFile.resolveSibling(showFile.getFileName() + ".idx");
+    }
+}
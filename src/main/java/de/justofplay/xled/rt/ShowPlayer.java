@@ -0,0 +1,223 @@
+package de.justofplay.xled.rt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import static de.justofplay.xled.rt.ShowFormat.*;
+
+/**
+ * Plays back a show file written by {@link ShowRecorder} with the original timing.
+ * <p>
+ * The file is mapped one chunk at a time and frames are sent straight from the mapping,
+ * so even multi-hour recordings are never copied into the heap.
+ */
+public class ShowPlayer implements Closeable {
+    /** Below this remaining wait the player spins instead of parking, for exact timing. */
+    private static final long SPIN_NANOS = 200_000;
+
+    private final FileChannel _channel;
+    private final long _file_size;
+    private final int _chunk_size;
+    private final List<String> _devices;
+    // Seek index, or null if the index file is missing
+    private final MappedByteBuffer _index;
+
+    // The chunk frames are currently read from, and a reusable view on it for sending
+    private MappedByteBuffer _chunk;
+    private ByteBuffer _frame_view;
+    private long _chunk_start = -1;
+    // Read position within the current chunk
+    private int _position;
+    private volatile boolean _playing;
+
+    /**
+     * Constructs a ShowPlayer and reads the header of a show file.
+     * @param file The show file.
+     * @throws IOException If the file cannot be read or is not a show file.
+     */
+    public ShowPlayer(Path file) throws IOException {
+        _channel = FileChannel.open(file, StandardOpenOption.READ);
+        _file_size = _channel.size();
+        if (_file_size < HEADER_SIZE) {
+            _channel.close();
+            throw new IOException("Not a show file: " + file);
+        }
+        MappedByteBuffer header = _channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getLong(0) != MAGIC || header.getInt(HEADER_VERSION) != VERSION) {
+            _channel.close();
+            throw new IOException("Not a show file or unsupported version: " + file);
+        }
+        _chunk_size = header.getInt(HEADER_CHUNK_SIZE);
+        int deviceCount = header.getInt(HEADER_DEVICE_COUNT);
+        List<String> devices = new ArrayList<>();
+        header.position(HEADER_DEVICES);
+        for (int i = 0; i < deviceCount; i++) {
+            byte[] name = new byte[header.getShort()];
+            header.get(name);
+            devices.add(new String(name, StandardCharsets.UTF_8));
+        }
+        _devices = Collections.unmodifiableList(devices);
+
+        Path indexFile = indexFile(file);
+        MappedByteBuffer index = null;
+        if (Files.exists(indexFile)) {
+            try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                long size = indexChannel.size() / INDEX_ENTRY_SIZE * INDEX_ENTRY_SIZE;
+                index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+        _index = index;
+        seekOffset(HEADER_SIZE);
+    }
+
+    /** @return The device IPs of the recording, by device index. */
+    public List<String> getDevices() {
+        return _devices;
+    }
+
+    /**
+     * Moves to the first frame at or after a time of the recording.
+     * Uses the seek index to jump close to the time and reads forward from there.
+     * @param timestampNanos The time since the start of the recording in nanoseconds.
+     * @throws IOException If the file cannot be read.
+     */
+    public void seek(long timestampNanos) throws IOException {
+        long offset = HEADER_SIZE;
+        if (_index != null) {
+            int low = 0;
+            int high = _index.capacity() / INDEX_ENTRY_SIZE - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (_index.getLong(mid * INDEX_ENTRY_SIZE) <= timestampNanos) {
+                    offset = _index.getLong(mid * INDEX_ENTRY_SIZE + 8);
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+        }
+        seekOffset(offset);
+        while (nextFrame() && _chunk.getLong(_position + RECORD_TIMESTAMP) < timestampNanos) {
+            _position += RECORD_HEADER_SIZE + _chunk.getInt(_position);
+        }
+    }
+
+    /**
+     * Plays from the current position to the end with the recorded timing.
+     * Frames of devices without a sender are skipped.
+     * @param senders The senders by device IP.
+     * @throws IOException If the file cannot be read or a frame cannot be sent.
+     */
+    public void play(Map<String, RealtimeSender> senders) throws IOException {
+        RealtimeSender[] byIndex = new RealtimeSender[_devices.size()];
+        for (int i = 0; i < byIndex.length; i++) {
+            byIndex[i] = senders.get(_devices.get(i));
+        }
+
+        _playing = true;
+        long origin = 0;
+        boolean first = true;
+        try {
+            while (_playing && nextFrame()) {
+                int length = _chunk.getInt(_position);
+                int device = _chunk.getShort(_position + RECORD_DEVICE);
+                long timestamp = _chunk.getLong(_position + RECORD_TIMESTAMP);
+                if (first) {
+                    origin = System.nanoTime() - timestamp;
+                    first = false;
+                }
+                waitUntil(origin + timestamp);
+
+                RealtimeSender sender = device < byIndex.length ? byIndex[device] : null;
+                if (sender != null) {
+                    int payload = _position + RECORD_HEADER_SIZE;
+                    _frame_view.limit(payload + length).position(payload);
+                    sender.sendFrame(_frame_view);
+                }
+                _position += RECORD_HEADER_SIZE + length;
+            }
+        } finally {
+            _playing = false;
+        }
+    }
+
+    /**
+     * Stops a running {@link #play(Map)} after the current frame.
+     */
+    public void stop() {
+        _playing = false;
+    }
+
+    /**
+     * Closes the show file.
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        _playing = false;
+        _channel.close();
+    }
+
+    /**
+     * Moves to the next frame record, mapping the next chunk if needed.
+     * @return False at the end of the recording.
+     */
+    private boolean nextFrame() throws IOException {
+        while (true) {
+            if (_position + RECORD_HEADER_SIZE > _chunk.limit()) {
+                if (!mapChunk(_chunk_start + _chunk_size)) return false;
+                continue;
+            }
+            byte type = _chunk.get(_position + RECORD_TYPE);
+            if (type == TYPE_FRAME) {
+                return _position + RECORD_HEADER_SIZE + _chunk.getInt(_position) <= _chunk.limit();
+            }
+            if (type != TYPE_NEXT_CHUNK) return false;
+            if (!mapChunk(_chunk_start + _chunk_size)) return false;
+        }
+    }
+
+    private void seekOffset(long offset) throws IOException {
+        long chunkStart = HEADER_SIZE + (offset - HEADER_SIZE) / _chunk_size * _chunk_size;
+        if (chunkStart != _chunk_start) {
+            mapChunk(chunkStart);
+        }
+        _position = (int) (offset - chunkStart);
+    }
+
+    /**
+     * Maps the chunk starting at a file offset.
+     * @return False if the offset is past the end of the file.
+     */
+    private boolean mapChunk(long chunkStart) throws IOException {
+        if (chunkStart >= _file_size && _chunk != null) return false;
+        long size = Math.max(0, Math.min(_chunk_size, _file_size - chunkStart));
+        _chunk = _channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, size);
+        _frame_view = _chunk.duplicate();
+        _chunk_start = chunkStart;
+        _position = 0;
+        return size > 0;
+    }
+
+    private static void waitUntil(long dueNanos) {
+        long remaining;
+        while ((remaining = dueNanos - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+        while (dueNanos - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.justofplay.xled.rt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.justofplay.xled.rt.ShowFormat.*;
+
+/**
+ * Records real-time frames of one or more devices into a show file for {@link ShowPlayer}.
+ * <p>
+ * Frames are appended to a memory-mapped chunk of the file, so recording does not allocate
+ * and multi-hour recordings never live in the heap. Attach the recorder to a sender with
+ * {@link RealtimeSender#setRecorder(ShowRecorder)} to capture every frame it sends.
+ */
+public class ShowRecorder implements Closeable {
+    private final FileChannel _channel;
+    private final FileChannel _index_channel;
+    private final int _chunk_size;
+    private final Path _file;
+    // The header with the device table, mapped for the whole recording
+    private MappedByteBuffer _header;
+    // The chunk records are currently appended to
+    private MappedByteBuffer _chunk;
+    // File offset of the current chunk
+    private long _chunk_start;
+    // Reused buffer for index entries
+    private final ByteBuffer _index_entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    private final List<String> _devices = new ArrayList<>();
+    private final long _start_nanos = System.nanoTime();
+    private long _next_index_nanos;
+    private boolean _closed;
+
+    /**
+     * Constructs a ShowRecorder with the default chunk size. An existing file is replaced.
+     * @param file The show file to write.
+     * @throws IOException If the file cannot be created.
+     */
+    public ShowRecorder(Path file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a ShowRecorder. An existing file is replaced.
+     * @param file      The show file to write.
+     * @param chunkSize The size of the mapped chunks in bytes; must hold the largest frame.
+     * @throws IOException If the file cannot be created.
+     */
+    public ShowRecorder(Path file, int chunkSize) throws IOException {
+        _file = file;
+        _chunk_size = chunkSize;
+        _channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        _index_channel = FileChannel.open(indexFile(file), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        _header = _channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        _header.putLong(0, MAGIC);
+        _header.putInt(HEADER_VERSION, VERSION);
+        _header.putInt(HEADER_CHUNK_SIZE, chunkSize);
+        _header.putInt(HEADER_DEVICE_COUNT, 0);
+        _header.position(HEADER_DEVICES);
+        _chunk_start = HEADER_SIZE;
+        _chunk = _channel.map(FileChannel.MapMode.READ_WRITE, _chunk_start, _chunk_size);
+    }
+
+    /**
+     * Adds a device to the recording. Adding the same IP twice returns the same index.
+     * @param ip The IP address of the device, used to match it with a sender when playing.
+     * @return The index of the device in the recording.
+     * @throws IllegalStateException If the recorder is closed.
+     */
+    public synchronized int addDevice(String ip) {
+        if (_closed) {
+            throw new IllegalStateException("Show recorder is closed");
+        }
+        int index = _devices.indexOf(ip);
+        if (index != -1) return index;
+        byte[] name = ip.getBytes(StandardCharsets.UTF_8);
+        if (_header.remaining() < 2 + name.length) {
+            throw new IllegalStateException("Too many devices in show file");
+        }
+        _header.putShort((short) name.length).put(name);
+        _devices.add(ip);
+        _header.putInt(HEADER_DEVICE_COUNT, _devices.size());
+        return _devices.size() - 1;
+    }
+
+    /**
+     * Records one frame. Does nothing once the recorder is closed, so closing it never breaks
+     * the stream it observes.
+     * @param device The device index from {@link #addDevice(String)}.
+     * @param frame  The LED data.
+     * @param length The number of bytes of {@code frame} to record.
+     * @throws IOException If the file cannot be extended.
+     */
+    public synchronized void record(int device, byte[] frame, int length) throws IOException {
+        if (_closed) return;
+        long timestamp = begin(device, length);
+        _chunk.putInt(length).putShort((short) device).put(TYPE_FRAME).put((byte) 0).putLong(timestamp);
+        _chunk.put(frame, 0, length);
+    }
+
+    /**
+     * Records one frame from a buffer. The position of the buffer is not changed.
+     * Does nothing once the recorder is closed.
+     * @param device The device index from {@link #addDevice(String)}.
+     * @param frame  The LED data, from position to limit.
+     * @throws IOException If the file cannot be extended.
+     */
+    public synchronized void record(int device, ByteBuffer frame) throws IOException {
+        if (_closed) return;
+        int length = frame.remaining();
+        long timestamp = begin(device, length);
+        _chunk.putInt(length).putShort((short) device).put(TYPE_FRAME).put((byte) 0).putLong(timestamp);
+        int position = frame.position();
+        _chunk.put(frame);
+        frame.position(position);
+    }
+
+    /**
+     * Ends the recording: writes the end marker, trims the file to its content and closes it.
+     * Frames recorded after closing are ignored.
+     * <p>
+     * The file is trimmed after the mappings are released. Platforms that refuse to truncate a file
+     * while a mapping is still alive (Windows, until the buffers are garbage collected) keep the
+     * zero-filled rest of the last chunk; zeros read as the end marker, so the file stays valid.
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (_closed) return;
+        _closed = true;
+        long end = _chunk_start + _chunk.position();
+        if (_chunk.remaining() >= RECORD_HEADER_SIZE) {
+            _chunk.putInt(0).putShort((short) 0).put(TYPE_END);
+            end += RECORD_HEADER_SIZE;
+        }
+        _chunk.force();
+        _header.force();
+        _chunk = null;
+        _header = null;
+        _channel.close();
+        _index_channel.close();
+        try (FileChannel channel = FileChannel.open(_file, StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+        } catch (IOException e) {
+            // Still mapped on this platform; the padding reads as the end of the recording
+        }
+    }
+
+    /**
+     * Makes room for a record in the current chunk and updates the seek index.
+     * @return The timestamp of the record.
+     */
+    private long begin(int device, int length) throws IOException {
+        if (device < 0 || device >= _devices.size()) {
+            throw new IllegalArgumentException("Unknown device index: " + device);
+        }
+        if (RECORD_HEADER_SIZE + length > _chunk_size) {
+            throw new IllegalArgumentException("Frame of " + length + " bytes does not fit into a chunk");
+        }
+        if (_chunk.remaining() < RECORD_HEADER_SIZE + length) {
+            if (_chunk.remaining() >= RECORD_HEADER_SIZE) {
+                _chunk.putInt(0).putShort((short) 0).put(TYPE_NEXT_CHUNK);
+            }
+            _chunk.force();
+            _chunk_start += _chunk_size;
+            _chunk = _channel.map(FileChannel.MapMode.READ_WRITE, _chunk_start, _chunk_size);
+        }
+
+        long timestamp = System.nanoTime() - _start_nanos;
+        if (timestamp >= _next_index_nanos) {
+            _index_entry.clear();
+            _index_entry.putLong(timestamp).putLong(_chunk_start + _chunk.position()).flip();
+            while (_index_entry.hasRemaining()) {
+                _index_channel.write(_index_entry);
+            }
+            _next_index_nanos = timestamp + INDEX_INTERVAL_NANOS;
+        }
+        return timestamp;
+    }
+}
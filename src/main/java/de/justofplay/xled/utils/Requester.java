@@ -7,6 +7,8 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,6 +16,10 @@ import java.util.Map;
  * Utility class for sending HTTP requests to Twinkly devices.
  */
 public class Requester {
+    // Size of the chunks binary bodies are streamed in
+    private static final int UPLOAD_CHUNK_SIZE = 64 * 1024;
+    // The device flashes while answering an upload, so allow more time than for JSON requests
+    private static final int UPLOAD_READ_TIMEOUT = 60000;
 
     /**
      * Sends a POST request with a JSON body and custom headers.
@@ -58,46 +64,7 @@ public class Requester {
                 }
             }
 
-            int responseCode = connection.getResponseCode();
-
-            StringBuilder resp = new StringBuilder();
-            resp.append("HTTP/1.1 ").append(responseCode).append(" ");
-            String reason = switch (responseCode) {
-                case 200 -> "OK";
-                case 400 -> "Bad Request";
-                case 401 -> "Unauthorized";
-                case 404 -> "Not Found";
-                case 500 -> "Internal Server Error";
-                default -> "";
-            };
-            resp.append(reason).append("\n");
-
-            for (Map.Entry<String, java.util.List<String>> entry : connection.getHeaderFields().entrySet()) {
-                if (entry.getKey() != null) {
-                    for (String value : entry.getValue()) {
-                        resp.append(entry.getKey()).append(": ").append(value).append("\n");
-                    }
-                }
-            }
-            resp.append("\n");
-
-            BufferedReader in;
-            if (responseCode >= 200 && responseCode < 300) {
-                in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-            } else {
-                in = new BufferedReader(new InputStreamReader(connection.getErrorStream(), "utf-8"));
-            }
-
-            StringBuilder body = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                body.append(line);
-            }
-            in.close();
-
-            resp.append(body);
-
-            return resp.toString();
+            return readResponse(connection);
         } catch (java.net.SocketTimeoutException e) {
             return "Timeout: " + e.getMessage();
         } catch (Exception e) {
@@ -124,6 +91,72 @@ public class Requester {
         return Requester.sendJsonPost(url, jsonContent, headers);
     }
 
+    /**
+     * Streams a binary POST body from a buffer and feeds every sent byte into a digest.
+     * The buffer is read from its position to its limit without being modified, so one
+     * shared (e.g. memory-mapped) buffer can be uploaded to several devices at once.
+     *
+     * @param url     The full URL to send the request to.
+     * @param body    The bytes to send.
+     * @param digest  The digest to update with the sent bytes, or null.
+     * @param headers The headers to include in the request.
+     * @return The full HTTP response as a string.
+     */
+    public static String sendBinaryPost(String url, ByteBuffer body, MessageDigest digest, Map<String, String> headers) {
+        try {
+            URL urlObj = new URL(url);
+            HttpURLConnection connection = (HttpURLConnection) urlObj.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            if (headers != null) {
+                headers.forEach((key, value) -> connection.setRequestProperty(key, value));
+            }
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode((long) body.remaining());
+
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(UPLOAD_READ_TIMEOUT);
+
+            ByteBuffer source = body.duplicate();
+            byte[] chunk = new byte[UPLOAD_CHUNK_SIZE];
+            try (OutputStream os = connection.getOutputStream()) {
+                while (source.hasRemaining()) {
+                    int length = Math.min(chunk.length, source.remaining());
+                    source.get(chunk, 0, length);
+                    if (digest != null) {
+                        digest.update(chunk, 0, length);
+                    }
+                    os.write(chunk, 0, length);
+                }
+            }
+
+            return readResponse(connection);
+        } catch (java.net.SocketTimeoutException e) {
+            return "Timeout: " + e.getMessage();
+        } catch (Exception e) {
+            return "Exception: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Streams a binary POST body with authentication token (if available).
+     *
+     * @param path   The API path (e.g. "/xled/v1/fw/0/update").
+     * @param body   The bytes to send.
+     * @param digest The digest to update with the sent bytes, or null.
+     * @param _login The Login object containing the authentication token.
+     * @param _ip    The device IP address.
+     * @return The full HTTP response as a string.
+     */
+    public static String postBinaryWithAuth(String path, ByteBuffer body, MessageDigest digest, Login _login, String _ip) {
+        String url = "http://" + _ip + path;
+        Map<String, String> headers = new HashMap<>();
+        if (_login != null && _login.getAuthenticationToken() != null) {
+            headers.put("X-Auth-Token", _login.getAuthenticationToken());
+        }
+        return Requester.sendBinaryPost(url, body, digest, headers);
+    }
+
     /**
      * Sends a GET request with an authentication token.
      *
@@ -145,51 +178,62 @@ public class Requester {
             connection.setConnectTimeout(5000);
             connection.setReadTimeout(5000);
 
-            int responseCode = connection.getResponseCode();
-
-            StringBuilder resp = new StringBuilder();
-            resp.append("HTTP/1.1 ").append(responseCode).append(" ");
-            String reason = switch (responseCode) {
-                case 200 -> "OK";
-                case 400 -> "Bad Request";
-                case 401 -> "Unauthorized";
-                case 404 -> "Not Found";
-                case 500 -> "Internal Server Error";
-                default -> "";
-            };
-            resp.append(reason).append("\n");
-
-            for (Map.Entry<String, java.util.List<String>> entry : connection.getHeaderFields().entrySet()) {
-                if (entry.getKey() != null) {
-                    for (String value : entry.getValue()) {
-                        resp.append(entry.getKey()).append(": ").append(value).append("\n");
-                    }
+            return readResponse(connection);
+        } catch (java.net.SocketTimeoutException e) {
+            return "Timeout: " + e.getMessage();
+        } catch (Exception e) {
+            return "Exception: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Reads the response of a connection and formats it as a full HTTP response string.
+     *
+     * @param connection The connection after the request has been sent.
+     * @return The full HTTP response as a string (status, headers, body).
+     * @throws java.io.IOException If the response cannot be read.
+     */
+    private static String readResponse(HttpURLConnection connection) throws java.io.IOException {
+        int responseCode = connection.getResponseCode();
+
+        StringBuilder resp = new StringBuilder();
+        resp.append("HTTP/1.1 ").append(responseCode).append(" ");
+        String reason = switch (responseCode) {
+            case 200 -> "OK";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 404 -> "Not Found";
+            case 500 -> "Internal Server Error";
+            default -> "";
+        };
+        resp.append(reason).append("\n");
+
+        for (Map.Entry<String, java.util.List<String>> entry : connection.getHeaderFields().entrySet()) {
+            if (entry.getKey() != null) {
+                for (String value : entry.getValue()) {
+                    resp.append(entry.getKey()).append(": ").append(value).append("\n");
                 }
             }
-            resp.append("\n");
+        }
+        resp.append("\n");
 
-            BufferedReader in;
-            if (responseCode >= 200 && responseCode < 300) {
-                in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-            } else {
-                in = new BufferedReader(new InputStreamReader(connection.getErrorStream(), "utf-8"));
-            }
+        BufferedReader in;
+        if (responseCode >= 200 && responseCode < 300) {
+            in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
+        } else {
+            in = new BufferedReader(new InputStreamReader(connection.getErrorStream(), "utf-8"));
+        }
 
-            StringBuilder body = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                body.append(line);
-            }
-            in.close();
+        StringBuilder body = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            body.append(line);
+        }
+        in.close();
 
-            resp.append(body);
+        resp.append(body);
 
-            return resp.toString();
-        } catch (java.net.SocketTimeoutException e) {
-            return "Timeout: " + e.getMessage();
-        } catch (Exception e) {
-            return "Exception: " + e.getMessage();
-        }
+        return resp.toString();
     }
 
 }
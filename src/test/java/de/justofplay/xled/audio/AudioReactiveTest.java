@@ -0,0 +1,54 @@
+package de.justofplay.xled.audio;
+
+import de.justofplay.xled.Device;
+import de.justofplay.xled.rt.RealtimeSender;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioReactiveTest {
+    private static final int FRAME_RATE = 25;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rejectsNonPositiveFrameRate() throws Exception {
+        File wav = TestAudio.writeWav(dir.resolve("short.wav").toFile(), TestAudio.generate(0.1, TestAudio.sine(440, 0.5)));
+        try (PcmReader reader = PcmReader.open(wav);
+             DatagramSocket device = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             RealtimeSender sender = new RealtimeSender(Device.lazy("127.0.0.1"), device.getLocalPort())) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> new AudioReactive(reader, sender, 100, 3, 0));
+            assertTrue(e.getMessage().contains("Frame rate"), e.getMessage());
+        }
+    }
+
+    @Test
+    void filePlaybackStaysWithinOneFramePeriod() throws Exception {
+        File wav = TestAudio.writeWav(dir.resolve("show.wav").toFile(), TestAudio.generate(2, TestAudio.pulses(0.5, 0.1)));
+        try (PcmReader reader = PcmReader.open(wav);
+             DatagramSocket device = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             RealtimeSender sender = new RealtimeSender(Device.lazy("127.0.0.1"), device.getLocalPort())) {
+            AudioReactive show = new AudioReactive(reader, sender, 250, 3, FRAME_RATE);
+            long start = System.nanoTime();
+            show.run();
+            long elapsed = System.nanoTime() - start;
+
+            // One frame per frame period of audio, played in real time
+            assertEquals(2 * FRAME_RATE, show.getFrames());
+            assertEquals(show.getFrames(), sender.getFramesSent());
+            assertTrue(elapsed >= 2 * FRAME_RATE * show.getFramePeriodNanos() - show.getFramePeriodNanos(),
+                    "played too fast: " + elapsed / 1_000_000 + " ms");
+            assertEquals(0, show.getLateFrames());
+            assertTrue(show.getMaxLatencyNanos() < show.getFramePeriodNanos(),
+                    "max latency " + show.getMaxLatencyNanos() / 1_000 + " us");
+        }
+    }
+}
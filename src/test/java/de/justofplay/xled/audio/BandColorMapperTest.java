@@ -0,0 +1,54 @@
+package de.justofplay.xled.audio;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandColorMapperTest {
+    // Band 0 is red at full level, band 1 is violet (hue 280) at half level
+    private static final float[] LEVELS = {1f, 0.5f};
+
+    @Test
+    void rgbFrameLayout() {
+        BandColorMapper mapper = new BandColorMapper(4, 3, 2);
+        byte[] frame = new byte[mapper.getFrameSize()];
+        assertEquals(12, frame.length);
+
+        mapper.render(LEVELS, false, frame);
+        assertLed(frame, 0, 3, 255, 0, 0);
+        assertLed(frame, 1, 3, 255, 0, 0);
+        assertLed(frame, 2, 3, 85, 0, 128);
+        assertLed(frame, 3, 3, 85, 0, 128);
+
+        // A beat blends every LED to white
+        mapper.render(LEVELS, true, frame);
+        assertLed(frame, 0, 3, 255, 255, 255);
+        assertLed(frame, 3, 3, 255, 255, 255);
+    }
+
+    @Test
+    void rgbwFrameLayout() {
+        BandColorMapper mapper = new BandColorMapper(4, 4, 2);
+        byte[] frame = new byte[mapper.getFrameSize()];
+        assertEquals(16, frame.length);
+
+        mapper.render(LEVELS, false, frame);
+        assertLed(frame, 0, 4, 0, 255, 0, 0);
+        assertLed(frame, 2, 4, 0, 85, 0, 128);
+
+        // White comes first and carries the beat flash, the colors are unchanged
+        mapper.render(LEVELS, true, frame);
+        assertLed(frame, 0, 4, 255, 255, 0, 0);
+        assertLed(frame, 3, 4, 255, 85, 0, 128);
+
+        // The flash decays over the next frames
+        mapper.render(LEVELS, false, frame);
+        assertLed(frame, 1, 4, 179, 255, 0, 0);
+    }
+
+    private static void assertLed(byte[] frame, int led, int bytesPerLed, int... expected) {
+        for (int i = 0; i < bytesPerLed; i++) {
+            assertEquals(expected[i], frame[led * bytesPerLed + i] & 0xFF, "LED " + led + " byte " + i);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.justofplay.xled.audio;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpectrumAnalyzerTest {
+    private static final int SIZE = 2048;
+    private static final int BANDS = 16;
+    // Samples per frame at 25 frames per second, as AudioReactive uses them
+    private static final int HOP = 1764;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sineWavePeaksInItsBand() throws Exception {
+        for (double frequency : new double[]{100, 1000, 5000}) {
+            File wav = TestAudio.writeWav(dir.resolve(frequency + ".wav").toFile(),
+                    TestAudio.generate(1, TestAudio.sine(frequency, 0.5)));
+            SpectrumAnalyzer analyzer = new SpectrumAnalyzer(SIZE, TestAudio.SAMPLE_RATE, BANDS);
+            float[] window = new float[SIZE];
+            try (PcmReader reader = PcmReader.open(wav)) {
+                assertEquals(TestAudio.SAMPLE_RATE, reader.getSampleRate());
+                assertEquals(SIZE, reader.read(window, 0, SIZE));
+            }
+            analyzer.analyze(window);
+
+            // Bands are spaced logarithmically from 40 Hz to 16 kHz
+            int expected = (int) (Math.log(frequency / 40) / Math.log(16000.0 / 40) * BANDS);
+            float[] energies = analyzer.getEnergies();
+            assertEquals(expected, indexOfMax(energies), frequency + " Hz");
+            assertEquals(1f, analyzer.getLevels()[expected], 1e-6f);
+            for (int b = 0; b < BANDS; b++) {
+                if (Math.abs(b - expected) > 1) {
+                    assertTrue(energies[b] < energies[expected] / 20, frequency + " Hz leaks into band " + b);
+                }
+            }
+        }
+    }
+
+    @Test
+    void pulseTrainTriggersBeats() {
+        // A 100 ms kick every half second for ten seconds
+        double period = 0.5;
+        float[] audio = TestAudio.generate(10, TestAudio.pulses(period, 0.1));
+        SpectrumAnalyzer analyzer = new SpectrumAnalyzer(SIZE, TestAudio.SAMPLE_RATE, BANDS);
+        float[] window = new float[SIZE];
+
+        List<Double> beats = new ArrayList<>();
+        for (int end = HOP; end <= audio.length; end += HOP) {
+            System.arraycopy(window, HOP, window, 0, SIZE - HOP);
+            System.arraycopy(audio, end - HOP, window, SIZE - HOP, HOP);
+            analyzer.analyze(window);
+            if (analyzer.isBeat()) beats.add(end / (double) TestAudio.SAMPLE_RATE);
+        }
+
+        // The first kick only fills the history; every later one is a beat
+        assertTrue(beats.size() >= 18, "beats at " + beats);
+        for (double time : beats) {
+            assertTrue(time % period < 0.1 + HOP / TestAudio.SAMPLE_RATE, "beat outside a kick at " + time);
+        }
+        for (int i = 1; i < beats.size(); i++) {
+            assertTrue(beats.get(i) - beats.get(i - 1) > period / 2, "kick detected twice at " + beats.get(i));
+        }
+    }
+
+    @Test
+    void analyzeAndRenderDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeAllocationCounting(threads);
+        long thread = Thread.currentThread().getId();
+
+        float[] audio = TestAudio.generate(1, TestAudio.pulses(0.25, 0.05));
+        float[] window = new float[SIZE];
+        System.arraycopy(audio, 0, window, 0, SIZE);
+        SpectrumAnalyzer analyzer = new SpectrumAnalyzer(SIZE, TestAudio.SAMPLE_RATE, BANDS);
+        BandColorMapper mapper = new BandColorMapper(250, 3, BANDS);
+        byte[] frame = new byte[mapper.getFrameSize()];
+        for (int i = 0; i < 1000; i++) {
+            analyzer.analyze(window);
+            mapper.render(analyzer.getLevels(), analyzer.isBeat(), frame);
+        }
+
+        // Reading the counter may allocate itself
+        long overhead = threads.getThreadAllocatedBytes(thread);
+        long before = threads.getThreadAllocatedBytes(thread);
+        overhead = before - overhead;
+        for (int i = 0; i < 1000; i++) {
+            analyzer.analyze(window);
+            mapper.render(analyzer.getLevels(), analyzer.isBeat(), frame);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        // A single object per frame would add up to at least 16 kB
+        assertTrue(allocated < 1024, allocated + " bytes allocated in 1000 frames");
+    }
+
+    private static void assumeAllocationCounting(com.sun.management.ThreadMXBean threads) {
+        org.junit.jupiter.api.Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private static int indexOfMax(float[] values) {
+        int max = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[max]) max = i;
+        }
+        return max;
+    }
+}
@@ -0,0 +1,70 @@
+package de.justofplay.xled.audio;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Generates test signals and writes them as 16-bit mono WAV files.
+ */
+final class TestAudio {
+    static final float SAMPLE_RATE = 44100f;
+
+    private TestAudio() {
+    }
+
+    /**
+     * Generates a signal.
+     * @param seconds The length in seconds.
+     * @param signal  The sample (-1..1) for each sample index.
+     * @return The samples.
+     */
+    static float[] generate(double seconds, IntToDoubleFunction signal) {
+        float[] samples = new float[(int) (seconds * SAMPLE_RATE)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) signal.applyAsDouble(i);
+        }
+        return samples;
+    }
+
+    /**
+     * @return A sine wave of the given frequency and amplitude.
+     */
+    static IntToDoubleFunction sine(double frequency, double amplitude) {
+        return i -> amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE);
+    }
+
+    /**
+     * @return Bursts of a low sine starting every {@code periodSeconds}, silence in between.
+     */
+    static IntToDoubleFunction pulses(double periodSeconds, double pulseSeconds) {
+        IntToDoubleFunction tone = sine(60, 0.8);
+        return i -> (i / SAMPLE_RATE) % periodSeconds < pulseSeconds ? tone.applyAsDouble(i) : 0.0;
+    }
+
+    /**
+     * Writes samples as a 16-bit mono WAV file.
+     * @param file    The file to write.
+     * @param samples The samples (-1..1).
+     * @return The file.
+     * @throws IOException If the file cannot be written.
+     */
+    static File writeWav(File file, float[] samples) throws IOException {
+        byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            int value = Math.round(Math.max(-1f, Math.min(1f, samples[i])) * 32767f);
+            bytes[i * 2] = (byte) value;
+            bytes[i * 2 + 1] = (byte) (value >> 8);
+        }
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        try (AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(bytes), format, samples.length)) {
+            AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
+        }
+        return file;
+    }
+}
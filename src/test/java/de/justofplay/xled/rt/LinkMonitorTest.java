@@ -0,0 +1,83 @@
+package de.justofplay.xled.rt;
+
+import com.sun.net.httpserver.HttpServer;
+import de.justofplay.xled.Device;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkMonitorTest {
+    private static final String GESTALT = "{\"frame_rate\":25,\"measured_frame_rate\":25.0,\"code\":1000}";
+
+    @Test
+    void failedProbeDoesNotClampUnknownFrameRate() throws Exception {
+        try (DatagramSocket udp = openUdp();
+             RealtimeSender sender = new RealtimeSender(Device.lazy("127.0.0.1:" + closedPort()), udp.getLocalPort())) {
+            LinkMonitor monitor = new LinkMonitor(1000);
+            LinkQuality quality = monitor.add(sender);
+            monitor.probeAll();
+
+            assertEquals(1, quality.getFailedProbes());
+            assertTrue(quality.getLoss() > 0.1);
+            assertEquals(0, sender.getTargetFrameRate(), "stream clamped without a known device frame rate");
+        }
+    }
+
+    @Test
+    void cachedFrameRateEnablesAdaptation() throws Exception {
+        Device device = new Device("127.0.0.1:" + closedPort(), null, GESTALT);
+        try (DatagramSocket udp = openUdp();
+             RealtimeSender sender = new RealtimeSender(device, udp.getLocalPort())) {
+            LinkMonitor monitor = new LinkMonitor(1000);
+            LinkQuality quality = monitor.add(sender);
+            monitor.probeAll();
+
+            // A congested link lowers the device frame rate multiplicatively
+            assertEquals(20, sender.getTargetFrameRate());
+            assertEquals(20, quality.getTargetFrameRate());
+        }
+    }
+
+    @Test
+    void successfulProbeProvidesFrameRate() throws Exception {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        http.createContext("/xled/v1/gestalt", exchange -> {
+            byte[] body = GESTALT.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        http.start();
+        try (DatagramSocket udp = openUdp();
+             RealtimeSender sender = new RealtimeSender(Device.lazy("127.0.0.1:" + http.getAddress().getPort()), udp.getLocalPort())) {
+            LinkMonitor monitor = new LinkMonitor(1000);
+            LinkQuality quality = monitor.add(sender);
+            monitor.probeAll();
+
+            assertEquals(0, quality.getFailedProbes());
+            assertEquals(25, sender.getTargetFrameRate());
+        } finally {
+            http.stop(0);
+        }
+    }
+
+    private static DatagramSocket openUdp() throws IOException {
+        return new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    }
+
+    /** @return A local TCP port nothing listens on, so probes fail at once. */
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package de.justofplay.xled.rt;
+
+import de.justofplay.xled.Device;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShowRecorderTest {
+    private static final String IP = "127.0.0.1";
+    // 250 RGB LEDs, one UDP packet per frame
+    private static final int FRAME_SIZE = 750;
+    private static final int FRAMES = 200;
+    // Small chunks, so 200 frames span several of them
+    private static final int CHUNK_SIZE = 1 << 16;
+    // Header of a real-time packet in front of the LED data
+    private static final int PACKET_HEADER = 12;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripAcrossChunks() throws Exception {
+        Path file = dir.resolve("show.xshow");
+        try (DatagramSocket device = openDevice();
+             RealtimeSender sender = new RealtimeSender(Device.lazy(IP), device.getLocalPort())) {
+            try (ShowRecorder recorder = new ShowRecorder(file, CHUNK_SIZE)) {
+                sender.setRecorder(recorder);
+                for (int i = 0; i < FRAMES; i++) {
+                    assertTrue(sender.sendFrame(frame(i), FRAME_SIZE));
+                }
+            }
+            assertEquals(FRAMES, receive(device).size());
+            long expectedSize = ShowFormat.HEADER_SIZE
+                    + (long) (FRAMES - 1) * (ShowFormat.RECORD_HEADER_SIZE + FRAME_SIZE);
+            assertTrue(Files.size(file) > expectedSize, "file too short: " + Files.size(file));
+            assertTrue(Files.size(file) < ShowFormat.HEADER_SIZE + 4L * CHUNK_SIZE, "file not trimmed: " + Files.size(file));
+
+            // The closed recorder is still attached: replaying must neither fail nor record again
+            try (ShowPlayer player = new ShowPlayer(file)) {
+                assertEquals(List.of(IP), player.getDevices());
+                player.play(Map.of(IP, sender));
+            }
+            List<byte[]> replayed = receive(device);
+            assertEquals(FRAMES, replayed.size());
+            for (int i = 0; i < FRAMES; i++) {
+                assertFrame(i, replayed.get(i));
+            }
+            // Frames sent after closing did not touch the file
+            sender.sendFrame(frame(0), FRAME_SIZE);
+            assertTrue(Files.size(file) < ShowFormat.HEADER_SIZE + 4L * CHUNK_SIZE);
+        }
+    }
+
+    @Test
+    void seekToTheMiddle() throws Exception {
+        Path file = dir.resolve("timed.xshow");
+        try (ShowRecorder recorder = new ShowRecorder(file, CHUNK_SIZE)) {
+            int index = recorder.addDevice(IP);
+            // 2.5 s of frames, so the seek index has entries in the middle
+            long start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                long due = start + i * 12_500_000L;
+                while (System.nanoTime() < due) {
+                    Thread.sleep(1);
+                }
+                recorder.record(index, ByteBuffer.wrap(frame(i)));
+            }
+        }
+        assertTrue(Files.size(ShowFormat.indexFile(file)) >= 2 * ShowFormat.INDEX_ENTRY_SIZE);
+
+        try (DatagramSocket device = openDevice();
+             RealtimeSender sender = new RealtimeSender(Device.lazy(IP), device.getLocalPort());
+             ShowPlayer player = new ShowPlayer(file)) {
+            player.seek(1_250_000_000L);
+            player.play(Map.of(IP, sender));
+            List<byte[]> replayed = receive(device);
+
+            // The frames from the middle to the end, in order and unchanged
+            int first = FRAMES - replayed.size();
+            assertTrue(first > FRAMES / 4 && first < FRAMES * 3 / 4, "first frame after seek: " + first);
+            for (int i = 0; i < replayed.size(); i++) {
+                assertFrame(first + i, replayed.get(i));
+            }
+
+            // Seeking back replays everything
+            player.seek(0);
+            player.play(Map.of(IP, sender));
+            assertEquals(FRAMES, receive(device).size());
+        }
+    }
+
+    private static DatagramSocket openDevice() throws IOException {
+        DatagramSocket device = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        device.setReceiveBufferSize(1 << 20);
+        return device;
+    }
+
+    /** @return A frame whose bytes all identify its number. */
+    private static byte[] frame(int number) {
+        byte[] frame = new byte[FRAME_SIZE];
+        ByteBuffer.wrap(frame).putInt(number);
+        for (int i = 4; i < FRAME_SIZE; i++) {
+            frame[i] = (byte) (number + i);
+        }
+        return frame;
+    }
+
+    private static void assertFrame(int number, byte[] packet) {
+        assertEquals(PACKET_HEADER + FRAME_SIZE, packet.length);
+        assertEquals(0, packet[PACKET_HEADER - 1], "fragment number");
+        byte[] expected = frame(number);
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            assertEquals(expected[i], packet[PACKET_HEADER + i], "frame " + number + " byte " + i);
+        }
+    }
+
+    /** @return All packets that arrive until the device has been quiet for a moment. */
+    private static List<byte[]> receive(DatagramSocket device) throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        device.setSoTimeout(200);
+        byte[] buffer = new byte[2048];
+        while (true) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                device.receive(packet);
+            } catch (SocketTimeoutException e) {
+                return packets;
+            }
+            packets.add(Arrays.copyOf(packet.getData(), packet.getLength()));
+        }
+    }
+}